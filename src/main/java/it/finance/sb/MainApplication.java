@@ -1,6 +1,7 @@
 package it.finance.sb;
 
 import it.finance.sb.clicontroller.MainMenuCliController;
+import it.finance.sb.exception.MementoException;
 import it.finance.sb.factory.AccountFactory;
 import it.finance.sb.factory.DefaultFinanceFactory;
 import it.finance.sb.factory.FinanceAbstractFactory;
@@ -10,9 +11,13 @@ import it.finance.sb.io.CsvWriter;
 import it.finance.sb.io.ImporterI;
 import it.finance.sb.io.WriterI;
 import it.finance.sb.logging.LoggerFactory;
+import it.finance.sb.memento.KeyRotationJob;
 import it.finance.sb.model.transaction.AbstractTransaction;
 import it.finance.sb.service.*;
+import it.finance.sb.utility.ConsoleStyle;
 
+import java.util.Arrays;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -28,22 +33,33 @@ import java.util.logging.Logger;
  */
 public class MainApplication {
 
+    private static final String ROTATE_KEYS = "--rotate-keys";
+    private static final int ROTATION_PARALLELISM = 16;
+
     /**
      * Launches the FinanceTrack CLI application.
      *
-     * @param args CLI arguments (not used in this application)
+     * @param args CLI arguments: {@value #ROTATE_KEYS} rotates the encryption key,
+     *             re-encrypts every saved user and exits
      */
     public static void main(String[] args) {
         // Initialize a safe logger instance for the application
         Logger logger = LoggerFactory.getSafeLogger(MainApplication.class);
         logger.info("Starting application...");
 
+        if (Arrays.asList(args).contains(ROTATE_KEYS)) {
+            rotateKeys(logger);
+            return;
+        }
+
         // Instantiate core domain services and dependencies
         UserService userService = new UserService();
         FinanceAbstractFactory factory = new DefaultFinanceFactory(new TransactionFactory(), new AccountFactory());
         TransactionService transactionService = new TransactionService(userService, factory);
         AccountService accountService = new AccountService(transactionService, factory);
-        MementoService mementoService = new MementoService();
+        MementoService mementoService = new MementoService(true, true, 8);
+        // Saves are written in the background: make sure queued ones reach the disk on any exit
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> closeMemento(mementoService, logger), "memento-flush"));
 
         // Configure CSV importer and writer with appropriate headers
         ImporterI<AbstractTransaction> importer = new CsvImporter(factory);
@@ -69,6 +85,34 @@ public class MainApplication {
         );
         logger.info("Application configured correctly.");
         mainMenu.run();
+        closeMemento(mementoService, logger);
         logger.info("Closing application.");
     }
+
+    /**
+     * Writes the saves still queued and tells the user about the ones that failed.
+     */
+    private static void closeMemento(MementoService mementoService, Logger logger) {
+        try {
+            mementoService.close();
+        } catch (MementoException e) {
+            logger.severe("Unsaved changes at exit: " + e.getMessage());
+            System.out.println(ConsoleStyle.error(e.getMessage()));
+        }
+    }
+
+    /**
+     * Runs or resumes the key rotation job and reports its outcome.
+     */
+    private static void rotateKeys(Logger logger) {
+        try {
+            KeyRotationJob.Result result = new KeyRotationJob(ROTATION_PARALLELISM).run();
+            System.out.printf("Key version %d: %d users re-encrypted, %d already done, %d failed%n",
+                    result.keyVersion(), result.rotated(), result.skipped(), result.failed().size());
+            result.failed().forEach(name -> System.out.println("  failed: " + name));
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Key rotation failed", e);
+            System.out.println("Key rotation failed: " + e.getMessage());
+        }
+    }
 }
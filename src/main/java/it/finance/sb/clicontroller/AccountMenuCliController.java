@@ -12,6 +12,7 @@ import it.finance.sb.service.AccountService;
 import it.finance.sb.utility.AccountPrinter;
 import it.finance.sb.utility.ConsoleStyle;
 import it.finance.sb.utility.ConsoleUtils;
+import it.finance.sb.utility.TransactionPrinter;
 
 import java.util.List;
 import java.util.logging.Level;
@@ -52,6 +53,7 @@ public class AccountMenuCliController extends MenuCliController {
                 new MenuItem("Create Account", this::createAccount),
                 new MenuItem("Update Account", this::updateAccount),
                 new MenuItem("Delete Account", this::deleteAccount),
+                new MenuItem("Account Statement", this::displayStatement),
                 new MenuItem("Back", this::requestClose)          // no-op exits renderLoop()
         );
     }
@@ -154,6 +156,29 @@ public class AccountMenuCliController extends MenuCliController {
         }
     }
 
+    /**
+     * Prompts user to pick an account and prints its statement.
+     */
+    private void displayStatement() {
+        logger.info("Started account statement flow");
+        try {
+            AccountInterface acc = selectAccount("to show");
+            TransactionPrinter.printStatement(acc, accountService.getStatement(acc));
+        } catch (UserCancelledException e) {
+            System.out.println(ConsoleStyle.back(OPERATION_CANCELLED));
+            logger.fine("Account statement cancelled by user.");
+        } catch (AccountOperationException e) {
+            System.out.println(ConsoleStyle.error("Could not build statement: " + e.getMessage()));
+            logger.warning("Operation error during account statement: " + e.getMessage());
+        } catch (UserLoginException e) {
+            System.out.println(ConsoleStyle.error(SESSION_ERROR + e.getMessage()));
+            logger.warning("Session error during account statement: " + e.getMessage());
+        } catch (Exception e) {
+            System.out.println(ConsoleStyle.error(UNEXPECTED_ERROR + e.getMessage()));
+            logger.log(Level.SEVERE, "Unexpected error in displayStatement", e);
+        }
+    }
+
     /**
      * Prompts user to select an account from the list.
      *
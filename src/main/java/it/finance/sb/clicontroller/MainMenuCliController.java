@@ -27,6 +27,7 @@ public class MainMenuCliController extends MenuCliController {
     private final TransactionMenuCliController transactionMenuCliController;
     private final CsvMenuCliController csvMenuCliController;
     private final MementoService mementoService;
+    private final TransactionService transactionService;
 
     private User currentUser;
 
@@ -47,6 +48,7 @@ public class MainMenuCliController extends MenuCliController {
             FileIOService fileIOService
     ) {
         this.mementoService = mementoService;
+        this.transactionService = transactionService;
 
         this.userMenuCliController = new UserMenuCliController(userService, mementoService);
         this.csvMenuCliController = new CsvMenuCliController(fileIOService);
@@ -78,6 +80,8 @@ public class MainMenuCliController extends MenuCliController {
                 new MenuItem("Manage Accounts", this::showAccountMenu),
                 new MenuItem("Manage Transactions", this::showTransactionMenu),
                 new MenuItem("Import/Export CSV", this::showCsvMenu),
+                new MenuItem("Undo Last Change", this::undo),
+                new MenuItem("Redo Change", this::redo),
                 new MenuItem("Save Current User", this::saveUser),
                 new MenuItem("Exit", this::requestClose)     // no-op exits loop
         );
@@ -148,6 +152,34 @@ public class MainMenuCliController extends MenuCliController {
         }
     }
 
+    /**
+     * Reverts the latest account or transaction change.
+     */
+    private void undo() {
+        try {
+            transactionService.undo().ifPresentOrElse(
+                    change -> System.out.println(ConsoleStyle.success(" Undone: " + change)),
+                    () -> System.out.println(ConsoleStyle.info(" Nothing to undo.")));
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Undo failed", e);
+            System.out.println(ConsoleStyle.error(" Failed to undo: " + e.getMessage() + ". The change can still be undone later."));
+        }
+    }
+
+    /**
+     * Applies again the latest undone change.
+     */
+    private void redo() {
+        try {
+            transactionService.redo().ifPresentOrElse(
+                    change -> System.out.println(ConsoleStyle.success(" Redone: " + change)),
+                    () -> System.out.println(ConsoleStyle.info(" Nothing to redo.")));
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Redo failed", e);
+            System.out.println(ConsoleStyle.error(" Failed to redo: " + e.getMessage() + ". The change can still be redone later."));
+        }
+    }
+
     /**
      * Triggers a save of the current user's snapshot.
      */
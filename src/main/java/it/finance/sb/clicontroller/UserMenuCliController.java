@@ -4,6 +4,7 @@ import it.finance.sb.exception.DataValidationException;
 import it.finance.sb.exception.MementoException;
 import it.finance.sb.exception.UserCancelledException;
 import it.finance.sb.logging.LoggerFactory;
+import it.finance.sb.memento.SavedUserEntry;
 import it.finance.sb.model.user.Gender;
 import it.finance.sb.model.user.User;
 import it.finance.sb.service.MementoService;
@@ -89,7 +90,7 @@ public class UserMenuCliController extends MenuCliController {
     private void loadUser() {
         logger.info("Started load user flow");
         try {
-            List<String> savedUsers = mementoService.listUsers();
+            List<SavedUserEntry> savedUsers = mementoService.listUserEntries();
 
             // No users saved, fallback to user creation
             if (savedUsers.isEmpty()) {
@@ -99,7 +100,12 @@ public class UserMenuCliController extends MenuCliController {
             }
 
             // Let the user select a saved snapshot
-            int selected = ConsoleUtils.showMenu("Select a saved user", false, savedUsers.toArray(new String[0]));
+            String[] labels = savedUsers.stream()
+                    .map(entry -> entry.transactionCount() < 0
+                            ? entry.name()
+                            : entry.name() + " (" + entry.transactionCount() + " transactions)")
+                    .toArray(String[]::new);
+            int selected = ConsoleUtils.showMenu("Select a saved user", false, labels);
             if (selected == -1) {
                 System.out.println(ConsoleStyle.back(OPERATION_CANCELLED_BY_USER));
                 return;
@@ -108,7 +114,7 @@ public class UserMenuCliController extends MenuCliController {
             // Prompt for password (input hidden)
             String enteredPassword = ConsoleUtils.prompt("Enter your password", true);
 
-            Optional<User> loaded = mementoService.loadUser(savedUsers.get(selected - 1));
+            Optional<User> loaded = mementoService.loadUser(savedUsers.get(selected - 1).name());
 
             // Check if the user was loaded and validate the password
             if (loaded.isPresent()) {
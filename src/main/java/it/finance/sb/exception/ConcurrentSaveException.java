@@ -0,0 +1,12 @@
+package it.finance.sb.exception;
+
+import java.io.IOException;
+
+/**
+ * Custom exception for a save rejected because another session changed the user first
+ */
+public class ConcurrentSaveException extends IOException {
+    public ConcurrentSaveException(String message) {
+        super(message);
+    }
+}
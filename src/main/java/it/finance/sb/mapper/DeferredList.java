@@ -0,0 +1,67 @@
+package it.finance.sb.mapper;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Read-only list whose content is produced on first access.
+ * Lets a snapshot carry transaction history that is decrypted and parsed
+ * only when somebody actually looks at it.
+ *
+ * @param <E> the element type
+ */
+public class DeferredList<E> extends AbstractList<E> {
+
+    private Supplier<? extends List<E>> loader;
+    private volatile List<E> content;
+
+    /**
+     * Instantiates a new Deferred list.
+     *
+     * @param loader produces the content, called at most once
+     */
+    public DeferredList(Supplier<? extends List<E>> loader) {
+        this.loader = Objects.requireNonNull(loader, "loader must not be null");
+    }
+
+    /**
+     * Tells whether the content has already been produced.
+     *
+     * @return true if loaded
+     */
+    public boolean isLoaded() {
+        return content != null;
+    }
+
+    /**
+     * Produces the content if needed and returns it.
+     *
+     * @return the content
+     */
+    public List<E> load() {
+        List<E> result = content;
+        if (result == null) {
+            synchronized (this) {
+                result = content;
+                if (result == null) {
+                    result = List.copyOf(loader.get());
+                    content = result;
+                    loader = null;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public E get(int index) {
+        return load().get(index);
+    }
+
+    @Override
+    public int size() {
+        return load().size();
+    }
+}
@@ -0,0 +1,49 @@
+package it.finance.sb.mapper;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import it.finance.sb.model.account.AccountInterface;
+import it.finance.sb.model.transaction.AbstractTransaction;
+import it.finance.sb.model.transaction.TransactionType;
+import it.finance.sb.model.user.Gender;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One record of the memento journal: the changes saved on top of the base snapshot.
+ * Profile, categories and accounts are small and stored whole; transactions are
+ * stored as the ones added and the ids of the ones removed since the previous save.
+ */
+public record UserJournalEntry(
+        String name,
+        int age,
+        Gender gender,
+        String password,
+        List<String> categories,
+        List<AccountInterface> accounts,
+        Map<TransactionType, List<AbstractTransaction>> addedTransactions,
+        List<Integer> removedTransactionIds
+) {
+
+    @JsonCreator
+    public UserJournalEntry(
+            @JsonProperty("name") String name,
+            @JsonProperty("age") int age,
+            @JsonProperty("gender") Gender gender,
+            @JsonProperty("password") String password,
+            @JsonProperty("categories") List<String> categories,
+            @JsonProperty("accounts") List<AccountInterface> accounts,
+            @JsonProperty("addedTransactions") Map<TransactionType, List<AbstractTransaction>> addedTransactions,
+            @JsonProperty("removedTransactionIds") List<Integer> removedTransactionIds
+    ) {
+        this.name = name;
+        this.age = age;
+        this.gender = gender;
+        this.password = password;
+        this.categories = categories;
+        this.accounts = accounts;
+        this.addedTransactions = addedTransactions;
+        this.removedTransactionIds = removedTransactionIds;
+    }
+}
@@ -1,13 +1,25 @@
 package it.finance.sb.mapper;
 
+import it.finance.sb.model.account.Account;
+import it.finance.sb.model.account.AccountInterface;
 import it.finance.sb.model.composite.TransactionList;
 import it.finance.sb.model.transaction.AbstractTransaction;
+import it.finance.sb.model.transaction.ExpenseTransaction;
+import it.finance.sb.model.transaction.IncomeTransaction;
+import it.finance.sb.model.transaction.MovementTransaction;
+import it.finance.sb.model.transaction.TransactionBuilder;
 import it.finance.sb.model.transaction.TransactionType;
 import it.finance.sb.model.user.User;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The type User mapper.
@@ -20,6 +32,11 @@ public class UserMapper {
 
     /**
      * To snapshot user snapshot.
+     * The snapshot is a consistent point-in-time view that stays valid while the user
+     * keeps changing, so it can be serialized on another thread: transaction lists are
+     * captured through {@link TransactionList#snapshot()} in constant time and flattened
+     * only when the snapshot is read, and accounts are copied because their balances
+     * change in place.
      *
      * @param user the user
      * @return the user snapshot
@@ -27,7 +44,8 @@ public class UserMapper {
     public static UserSnapshot toSnapshot(User user) {
         Map<TransactionType, List<AbstractTransaction>> flattened = new EnumMap<>(TransactionType.class);
         for (Map.Entry<TransactionType, TransactionList> entry : user.getTransactionLists().entrySet()) {
-            flattened.put(entry.getKey(), entry.getValue().getFlattenedTransactions());
+            TransactionList frozen = entry.getValue().snapshot();
+            flattened.put(entry.getKey(), new DeferredList<>(frozen::getFlattenedTransactions));
         }
         return new UserSnapshot(
                 user.getName(),
@@ -35,13 +53,206 @@ public class UserMapper {
                 user.getGender(),
                 user.getPassword(),
                 List.copyOf(user.getCategorySet()),
-                List.copyOf(user.getAccountList()),
+                copyAccounts(user.getAccountList()),
                 flattened
         );
     }
 
+    /**
+     * To journal entry user journal entry.
+     *
+     * @param user the user
+     * @return the journal entry holding the changes since the last save
+     */
+    public static UserJournalEntry toJournalEntry(User user) {
+        Map<TransactionType, List<AbstractTransaction>> added = new EnumMap<>(TransactionType.class);
+        for (AbstractTransaction tx : user.getChangeLog().getAdded()) {
+            added.computeIfAbsent(tx.getType(), t -> new ArrayList<>()).add(tx);
+        }
+        return new UserJournalEntry(
+                user.getName(),
+                user.getAge(),
+                user.getGender(),
+                user.getPassword(),
+                List.copyOf(user.getCategorySet()),
+                copyAccounts(user.getAccountList()),
+                added,
+                user.getChangeLog().getRemovedIds()
+        );
+    }
+
+    /**
+     * Copies the current state of the accounts, keeping their ids.
+     */
+    private static List<AccountInterface> copyAccounts(List<AccountInterface> accounts) {
+        List<AccountInterface> copies = new ArrayList<>(accounts.size());
+        for (AccountInterface account : accounts) {
+            copies.add(copyAccount(account));
+        }
+        return List.copyOf(copies);
+    }
+
+    private static AccountInterface copyAccount(AccountInterface account) {
+        return new Account(account.getAccountId(), account.getName(), account.getBalance(), account.getType());
+    }
+
+    /**
+     * Copies a snapshot deeply: accounts and transactions are new instances with the
+     * same ids, so a user built from the copy never changes the original. History
+     * still deferred in the original stays deferred in the copy.
+     *
+     * @param snapshot the snapshot
+     * @return the copy
+     */
+    public static UserSnapshot copyOf(UserSnapshot snapshot) {
+        Map<Integer, AccountInterface> accounts = new ConcurrentHashMap<>();
+        List<AccountInterface> accountCopies = new ArrayList<>(snapshot.accounts().size());
+        for (AccountInterface account : snapshot.accounts()) {
+            AccountInterface copy = copyAccount(account);
+            accounts.put(copy.getAccountId(), copy);
+            accountCopies.add(copy);
+        }
+        Map<TransactionType, List<AbstractTransaction>> transactions = new EnumMap<>(TransactionType.class);
+        snapshot.transactions().forEach((type, list) -> transactions.put(type,
+                list instanceof DeferredList<AbstractTransaction> deferred && !deferred.isLoaded()
+                        ? new DeferredList<>(() -> copyTransactions(deferred.load(), accounts))
+                        : copyTransactions(list, accounts)));
+
+        return new UserSnapshot(
+                snapshot.name(),
+                snapshot.age(),
+                snapshot.gender(),
+                snapshot.password(),
+                List.copyOf(snapshot.categories()),
+                List.copyOf(accountCopies),
+                transactions
+        );
+    }
+
+    /**
+     * Copies transactions, pointing them to the copied accounts; accounts the user
+     * no longer has are copied once and shared.
+     */
+    private static List<AbstractTransaction> copyTransactions(List<AbstractTransaction> transactions,
+                                                              Map<Integer, AccountInterface> accounts) {
+        List<AbstractTransaction> copies = new ArrayList<>(transactions.size());
+        for (AbstractTransaction tx : transactions) {
+            TransactionBuilder builder = new TransactionBuilder()
+                    .type(tx.getType())
+                    .transactionId(tx.getTransactionId())
+                    .amount(tx.getAmount())
+                    .category(tx.getCategory())
+                    .reason(tx.getReason())
+                    .date(tx.getDate() == null ? null : new Date(tx.getDate().getTime()));
+            if (tx instanceof IncomeTransaction income) {
+                builder.to(copyOf(income.getToAccount(), accounts));
+            } else if (tx instanceof ExpenseTransaction expense) {
+                builder.from(copyOf(expense.getFromAccount(), accounts));
+            } else if (tx instanceof MovementTransaction movement) {
+                builder.to(copyOf(movement.getToAccount(), accounts))
+                        .from(copyOf(movement.getFromAccount(), accounts));
+            }
+            copies.add(builder.build());
+        }
+        return copies;
+    }
+
+    private static AccountInterface copyOf(AccountInterface account, Map<Integer, AccountInterface> accounts) {
+        return account == null ? null : accounts.computeIfAbsent(account.getAccountId(), id -> copyAccount(account));
+    }
+
+    /**
+     * Replays a journal entry on top of a snapshot.
+     *
+     * @param snapshot the snapshot
+     * @param entry    the journal entry
+     * @return the snapshot with the entry applied
+     */
+    public static UserSnapshot applyJournalEntry(UserSnapshot snapshot, UserJournalEntry entry) {
+        Set<Integer> removed = new HashSet<>(entry.removedTransactionIds());
+        // Added transactions may end up in deferred history, which fromSnapshot does not scan
+        entry.addedTransactions().values().forEach(list ->
+                list.forEach(tx -> AbstractTransaction.reserveIdsUpTo(tx.getTransactionId())));
+        Map<TransactionType, List<AbstractTransaction>> transactions = new EnumMap<>(TransactionType.class);
+        for (TransactionType type : TransactionType.values()) {
+            List<AbstractTransaction> base = snapshot.transactions().getOrDefault(type, List.of());
+            List<AbstractTransaction> added = entry.addedTransactions().getOrDefault(type, List.of());
+            // History that was not loaded yet stays deferred, the entry is replayed once it is
+            transactions.put(type, base instanceof DeferredList<AbstractTransaction> deferred && !deferred.isLoaded()
+                    ? new DeferredList<>(() -> replay(deferred.load(), removed, added))
+                    : replay(base, removed, added));
+        }
+
+        return new UserSnapshot(
+                entry.name(),
+                entry.age(),
+                entry.gender(),
+                entry.password(),
+                entry.categories(),
+                entry.accounts(),
+                transactions
+        );
+    }
+
+    /**
+     * Replays changes on a list. Transactions already present are replaced rather
+     * than duplicated, so replaying an entry twice gives the same result.
+     */
+    private static List<AbstractTransaction> replay(List<AbstractTransaction> base, Set<Integer> removed,
+                                                    List<AbstractTransaction> added) {
+        Set<Integer> replaced = new HashSet<>(removed);
+        added.forEach(tx -> replaced.add(tx.getTransactionId()));
+        List<AbstractTransaction> result = new ArrayList<>(base);
+        if (!replaced.isEmpty()) {
+            result.removeIf(tx -> replaced.contains(tx.getTransactionId()));
+        }
+        result.addAll(added);
+        return result;
+    }
+
+    /**
+     * Merges two consecutive journal entries into one with the same effect.
+     *
+     * @param earlier the entry saved first
+     * @param later   the entry saved next
+     * @return the merged entry
+     */
+    public static UserJournalEntry mergeJournalEntries(UserJournalEntry earlier, UserJournalEntry later) {
+        Set<Integer> removedLater = new HashSet<>(later.removedTransactionIds());
+        Set<Integer> addedEarlier = new HashSet<>();
+        Map<TransactionType, List<AbstractTransaction>> added = new EnumMap<>(TransactionType.class);
+        earlier.addedTransactions().forEach((type, list) -> list.forEach(tx -> {
+            addedEarlier.add(tx.getTransactionId());
+            if (!removedLater.contains(tx.getTransactionId())) {
+                added.computeIfAbsent(type, t -> new ArrayList<>()).add(tx);
+            }
+        }));
+        later.addedTransactions().forEach((type, list) ->
+                added.computeIfAbsent(type, t -> new ArrayList<>()).addAll(list));
+
+        // Removing a transaction the earlier entry added cancels out
+        Set<Integer> removed = new LinkedHashSet<>(earlier.removedTransactionIds());
+        removedLater.stream().filter(id -> !addedEarlier.contains(id)).forEach(removed::add);
+
+        return new UserJournalEntry(
+                later.name(),
+                later.age(),
+                later.gender(),
+                later.password(),
+                later.categories(),
+                later.accounts(),
+                added,
+                List.copyOf(removed)
+        );
+    }
+
     /**
      * From snapshot user.
+     * Transaction history still deferred in the snapshot is attached to the
+     * user's lists without being loaded. Transactions are relinked to the user's
+     * accounts by id: after a journal replay they may still hold the copies
+     * decoded with the base snapshot or with their journal entry, and balance
+     * updates must reach the accounts the user sees.
      *
      * @param snapshot the snapshot
      * @return the user
@@ -49,15 +260,52 @@ public class UserMapper {
     public static User fromSnapshot(UserSnapshot snapshot) {
         User user = new User(snapshot.name(), snapshot.age(), snapshot.gender(), snapshot.password());
 
+        Map<Integer, AccountInterface> accounts = new ConcurrentHashMap<>();
         snapshot.categories().forEach(user::addCategory);
-        snapshot.accounts().forEach(user::addAccount);
+        snapshot.accounts().forEach(account -> {
+            Account.reserveIdsUpTo(account.getAccountId());
+            user.addAccount(account);
+            accounts.put(account.getAccountId(), account);
+        });
 
         // Rebuild TransactionList composites
         snapshot.transactions().forEach((type, flatList) -> {
             TransactionList composite = user.getTransactionLists().get(type);
-            flatList.forEach(composite::addTransaction);
+            if (flatList instanceof DeferredList<AbstractTransaction> deferred && !deferred.isLoaded()) {
+                composite.addDeferred(() -> relink(deferred.load(), accounts));
+                return;
+            }
+            relink(flatList, accounts).forEach(tx -> {
+                composite.addTransaction(tx);
+                AbstractTransaction.reserveIdsUpTo(tx.getTransactionId());
+            });
         });
 
+        // The restored state is exactly what is on disk
+        user.getChangeLog().markSaved(user.getName());
         return user;
     }
+
+    /**
+     * Points the accounts of every transaction to the one instance per id. Accounts
+     * the user no longer has are shared among the transactions referring to them.
+     */
+    private static List<AbstractTransaction> relink(List<AbstractTransaction> transactions,
+                                                    Map<Integer, AccountInterface> accounts) {
+        for (AbstractTransaction tx : transactions) {
+            if (tx instanceof IncomeTransaction income) {
+                income.setToAccount(resolve(income.getToAccount(), accounts));
+            } else if (tx instanceof ExpenseTransaction expense) {
+                expense.setFromAccount(resolve(expense.getFromAccount(), accounts));
+            } else if (tx instanceof MovementTransaction movement) {
+                movement.setToAccount(resolve(movement.getToAccount(), accounts));
+                movement.setFromAccount(resolve(movement.getFromAccount(), accounts));
+            }
+        }
+        return transactions;
+    }
+
+    private static AccountInterface resolve(AccountInterface account, Map<Integer, AccountInterface> accounts) {
+        return account == null ? null : accounts.computeIfAbsent(account.getAccountId(), id -> account);
+    }
 }
@@ -0,0 +1,233 @@
+package it.finance.sb.memento;
+
+import it.finance.sb.memento.SegmentedSnapshotFormat.Header;
+import it.finance.sb.memento.SegmentedSnapshotFormat.TransactionSegment;
+import it.finance.sb.model.account.AccounType;
+import it.finance.sb.model.account.Account;
+import it.finance.sb.model.account.AccountInterface;
+import it.finance.sb.model.transaction.AbstractTransaction;
+import it.finance.sb.model.transaction.ExpenseTransaction;
+import it.finance.sb.model.transaction.IncomeTransaction;
+import it.finance.sb.model.transaction.MovementTransaction;
+import it.finance.sb.model.transaction.TransactionBuilder;
+import it.finance.sb.model.transaction.TransactionType;
+import it.finance.sb.model.user.Gender;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Segment codec writing fixed binary records.
+ * Accounts are written once in the header and transactions refer to them by id,
+ * so a decoded snapshot shares one account instance per id; transactions replayed
+ * from the journal are relinked to them by {@link it.finance.sb.mapper.UserMapper#fromSnapshot}.
+ * Transaction categories are dictionary encoded in the header, amounts and
+ * dates are stored as primitives and the transaction class follows from the
+ * segment type.
+ */
+final class BinarySegmentCodec implements SegmentCodec {
+
+    private static final int NONE = -1;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    @Override
+    public byte[] encodeHeader(Header header) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, header.name());
+        out.writeInt(header.age());
+        out.writeByte(header.gender() == null ? NONE : header.gender().ordinal());
+        writeString(out, header.password());
+        writeStrings(out, header.categories());
+        writeAccounts(out, header.accounts());
+        writeAccounts(out, header.detachedAccounts());
+        out.writeInt(header.maxTransactionId());
+        for (TransactionType type : TransactionType.values()) {
+            out.writeInt(header.segmentsPerType().getOrDefault(type, 0));
+        }
+        writeStrings(out, header.transactionCategories());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Header decodeHeader(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        String name = readString(in);
+        int age = in.readInt();
+        int gender = in.readByte();
+        String password = readString(in);
+        List<String> categories = readStrings(in);
+        List<AccountInterface> accounts = readAccounts(in);
+        List<AccountInterface> detached = readAccounts(in);
+        int maxTransactionId = in.readInt();
+        Map<TransactionType, Integer> segmentsPerType = new EnumMap<>(TransactionType.class);
+        for (TransactionType type : TransactionType.values()) {
+            segmentsPerType.put(type, in.readInt());
+        }
+        List<String> dictionary = readStrings(in);
+        return new Header(name, age, gender == NONE ? null : entryAt(Gender.values(), gender), password,
+                categories, accounts, maxTransactionId, segmentsPerType, detached, dictionary);
+    }
+
+    @Override
+    public SegmentEncoder encoder(Header header) {
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> categories = header.transactionCategories();
+        for (int i = 0; i < categories.size(); i++) {
+            dictionary.put(categories.get(i), i);
+        }
+
+        return segment -> {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(segment.transactions().size() * 48);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(segment.type().ordinal());
+            out.writeInt(segment.transactions().size());
+            for (AbstractTransaction tx : segment.transactions()) {
+                out.writeInt(tx.getTransactionId());
+                out.writeDouble(tx.getAmount());
+                out.writeLong(tx.getDate() == null ? NO_DATE : tx.getDate().getTime());
+                out.writeInt(tx.getCategory() == null ? NONE : dictionary.get(tx.getCategory()));
+                writeString(out, tx.getReason());
+                switch (tx) {
+                    case IncomeTransaction income -> out.writeInt(accountId(income.getToAccount()));
+                    case ExpenseTransaction expense -> out.writeInt(accountId(expense.getFromAccount()));
+                    case MovementTransaction movement -> {
+                        out.writeInt(accountId(movement.getToAccount()));
+                        out.writeInt(accountId(movement.getFromAccount()));
+                    }
+                    default -> throw new IOException("Unsupported transaction class: " + tx.getClass().getName());
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        };
+    }
+
+    @Override
+    public SegmentDecoder decoder(Header header) {
+        Map<Integer, AccountInterface> accounts = new HashMap<>();
+        header.detachedAccounts().forEach(account -> accounts.put(account.getAccountId(), account));
+        header.accounts().forEach(account -> accounts.put(account.getAccountId(), account));
+        List<String> dictionary = header.transactionCategories();
+
+        return data -> {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            TransactionType type = entryAt(TransactionType.values(), in.readByte());
+            int count = in.readInt();
+            List<AbstractTransaction> transactions = new ArrayList<>(Math.min(count, SegmentedSnapshotFormat.SEGMENT_SIZE));
+            for (int i = 0; i < count; i++) {
+                TransactionBuilder builder = new TransactionBuilder()
+                        .type(type)
+                        .transactionId(in.readInt())
+                        .amount(in.readDouble());
+                long date = in.readLong();
+                int category = in.readInt();
+                builder.date(date == NO_DATE ? null : new Date(date))
+                        .category(category == NONE ? null : entryAt(dictionary, category))
+                        .reason(readString(in));
+                switch (type) {
+                    case INCOME -> builder.to(account(accounts, in.readInt()));
+                    case EXPENSE -> builder.from(account(accounts, in.readInt()));
+                    case MOVEMENT -> builder.to(account(accounts, in.readInt())).from(account(accounts, in.readInt()));
+                }
+                transactions.add(builder.build());
+            }
+            return new TransactionSegment(type, transactions);
+        };
+    }
+
+    private static int accountId(AccountInterface account) {
+        return account == null ? NONE : account.getAccountId();
+    }
+
+    private static AccountInterface account(Map<Integer, AccountInterface> accounts, int id) throws IOException {
+        if (id == NONE) return null;
+        AccountInterface account = accounts.get(id);
+        if (account == null) {
+            throw new IOException("Unknown account id in snapshot: " + id);
+        }
+        return account;
+    }
+
+    private static void writeAccounts(DataOutputStream out, List<AccountInterface> accounts) throws IOException {
+        out.writeInt(accounts.size());
+        for (AccountInterface account : accounts) {
+            out.writeInt(account.getAccountId());
+            writeString(out, account.getName());
+            out.writeDouble(account.getBalance());
+            out.writeByte(account.getType() == null ? NONE : account.getType().ordinal());
+        }
+    }
+
+    private static List<AccountInterface> readAccounts(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<AccountInterface> accounts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int id = in.readInt();
+            String name = readString(in);
+            double balance = in.readDouble();
+            int type = in.readByte();
+            accounts.add(new Account(id, name, balance, type == NONE ? null : entryAt(AccounType.values(), type)));
+        }
+        return accounts;
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NONE);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NONE) return null;
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] utf8 = new byte[length];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static <T> T entryAt(T[] values, int index) throws IOException {
+        return entryAt(List.of(values), index);
+    }
+
+    private static <T> T entryAt(List<T> values, int index) throws IOException {
+        if (index < 0 || index >= values.size()) {
+            throw new IOException("Invalid index in snapshot: " + index);
+        }
+        return values.get(index);
+    }
+}
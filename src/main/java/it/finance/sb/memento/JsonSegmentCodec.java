@@ -0,0 +1,50 @@
+package it.finance.sb.memento;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import it.finance.sb.memento.SegmentedSnapshotFormat.Header;
+import it.finance.sb.memento.SegmentedSnapshotFormat.TransactionSegment;
+
+import java.io.IOException;
+
+/**
+ * Segment codec storing every segment as compact polymorphic JSON.
+ * Used by snapshots written before the binary codec; every transaction carries
+ * its type name and a full copy of the accounts it refers to.
+ */
+final class JsonSegmentCodec implements SegmentCodec {
+
+    private final ObjectMapper mapper;
+    private final ObjectWriter writer;
+
+    /**
+     * Instantiates a new Json segment codec.
+     *
+     * @param mapper the mapper handling segment content
+     */
+    JsonSegmentCodec(ObjectMapper mapper) {
+        this.mapper = mapper;
+        this.writer = mapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+    }
+
+    @Override
+    public byte[] encodeHeader(Header header) throws IOException {
+        return writer.writeValueAsBytes(header);
+    }
+
+    @Override
+    public Header decodeHeader(byte[] data) throws IOException {
+        return mapper.readValue(data, Header.class);
+    }
+
+    @Override
+    public SegmentEncoder encoder(Header header) {
+        return writer::writeValueAsBytes;
+    }
+
+    @Override
+    public SegmentDecoder decoder(Header header) {
+        return data -> mapper.readValue(data, TransactionSegment.class);
+    }
+}
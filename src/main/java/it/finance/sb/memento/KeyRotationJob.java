@@ -0,0 +1,164 @@
+package it.finance.sb.memento;
+
+import it.finance.sb.logging.LoggerFactory;
+import it.finance.sb.utility.KeyProvider;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Rotates the encryption key and re-encrypts every saved user with it.
+ * Users are processed on virtual threads, at most {@code parallelism} at a time;
+ * each one goes through {@link UserMementoManager#reencrypt}, which streams
+ * snapshot segments through decrypt and encrypt and replaces files atomically.
+ * <p>
+ * Progress is checkpointed in a file next to the snapshots: the first line holds
+ * the target key version, every further line a finished user's file id. Running
+ * the job again after an interruption resumes the same rotation instead of
+ * starting a new one, skipping the users already done.
+ * <p>
+ * The job works on the shared {@link KeyProvider} and the manager's save
+ * directory; both can be pointed elsewhere with {@link KeyProvider#useKeyDirectory}
+ * and {@link UserMementoManager#useSaveDirectory}.
+ */
+public class KeyRotationJob {
+
+    private static final String VERSION_PREFIX = "version=";
+    private static final Logger logger = LoggerFactory.getSafeLogger(KeyRotationJob.class);
+
+    private final Path checkpoint;
+    private final int parallelism;
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+
+    /**
+     * Outcome of a rotation.
+     *
+     * @param keyVersion the key version every user is now encrypted with
+     * @param rotated    the users re-encrypted by this run
+     * @param skipped    the users already done by an interrupted run
+     * @param failed     the users that could not be re-encrypted
+     */
+    public record Result(int keyVersion, int rotated, int skipped, List<String> failed) {
+    }
+
+    /**
+     * Instantiates a new Key rotation job.
+     *
+     * @param parallelism the maximum number of users processed at once
+     */
+    public KeyRotationJob(int parallelism) {
+        this(UserMementoManager.saveDirectory().resolve("key-rotation.checkpoint"), parallelism);
+    }
+
+    KeyRotationJob(Path checkpoint, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.checkpoint = checkpoint;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Runs or resumes the rotation.
+     * The checkpoint is removed once every user is done; if some users failed it
+     * is kept, so the next run retries only those.
+     *
+     * @return the result
+     * @throws IOException              if the checkpoint cannot be read or written
+     * @throws GeneralSecurityException if the key cannot be rotated
+     */
+    public Result run() throws IOException, GeneralSecurityException {
+        Set<String> done = new HashSet<>();
+        int keyVersion = resume(done);
+        if (keyVersion < 0) {
+            keyVersion = KeyProvider.getInstance().rotate();
+            Files.writeString(checkpoint, VERSION_PREFIX + keyVersion + System.lineSeparator(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.SYNC);
+        }
+
+        List<SavedUserEntry> pending = UserMementoManager.listSavedUserEntries().stream()
+                .filter(entry -> !done.contains(entry.fileId()))
+                .toList();
+        int total = pending.size();
+        int version = keyVersion;
+        logger.info(() -> "Re-encrypting " + total + " users with key version " + version
+                + (done.isEmpty() ? "" : ", " + done.size() + " already done"));
+
+        AtomicInteger rotated = new AtomicInteger();
+        List<String> failed = Collections.synchronizedList(new ArrayList<>());
+        Semaphore permits = new Semaphore(parallelism);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (SavedUserEntry entry : pending) {
+                permits.acquireUninterruptibly();
+                executor.submit(() -> {
+                    try {
+                        UserMementoManager.reencrypt(entry.name());
+                        markDone(entry.fileId());
+                        int count = rotated.incrementAndGet();
+                        if (count % 100 == 0) {
+                            logger.info(() -> "Re-encrypted " + count + "/" + total + " users");
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        logger.warning(() -> "Could not re-encrypt " + entry.name() + ": " + e.getMessage());
+                        failed.add(entry.name());
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        }
+
+        if (failed.isEmpty()) {
+            Files.deleteIfExists(checkpoint);
+        }
+        logger.info(() -> "Key rotation finished: " + rotated.get() + " re-encrypted, " + failed.size() + " failed");
+        return new Result(keyVersion, rotated.get(), done.size(), List.copyOf(failed));
+    }
+
+    /**
+     * Reads the checkpoint of an interrupted rotation.
+     *
+     * @return its key version, or -1 if there is none
+     */
+    private int resume(Set<String> done) throws IOException {
+        if (!Files.exists(checkpoint)) return -1;
+
+        List<String> lines = Files.readAllLines(checkpoint, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).startsWith(VERSION_PREFIX)) {
+            throw new IOException("Invalid key rotation checkpoint: " + checkpoint);
+        }
+        int keyVersion = Integer.parseInt(lines.get(0).substring(VERSION_PREFIX.length()).strip());
+        lines.subList(1, lines.size()).stream().filter(line -> !line.isBlank()).forEach(done::add);
+        logger.info(() -> "Resuming key rotation to version " + keyVersion);
+        return keyVersion;
+    }
+
+    /**
+     * Records a finished user. Guarded by a lock rather than a monitor, so the
+     * virtual threads waiting on the synced write do not pin their carriers.
+     */
+    private void markDone(String fileId) throws IOException {
+        checkpointLock.lock();
+        try {
+            Files.writeString(checkpoint, fileId + System.lineSeparator(), StandardCharsets.UTF_8,
+                    StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+}
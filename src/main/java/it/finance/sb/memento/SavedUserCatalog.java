@@ -0,0 +1,470 @@
+package it.finance.sb.memento;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.finance.sb.logging.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Persistent index of the saved users, kept next to the snapshots.
+ * It maps every exact username to the id of its files, so names that file
+ * systems cannot hold are stored without loss, and keeps enough metadata to
+ * list and pick users without touching their files. The directory is only
+ * scanned once, to build the catalog when it does not exist yet.
+ * <p>
+ * The catalog is a base file holding all entries plus a change log: every change
+ * appends one line to the log, so a save costs the same whatever the number of
+ * users. Once the log holds more changes than the base holds entries, it is folded
+ * into a new base. Applying a change twice gives the same result, so a crash
+ * between writing the new base and dropping the log loses nothing.
+ * <p>
+ * Other processes may change the catalog too: a replaced base is read again,
+ * a grown log only from where this process stopped reading. Every change, and
+ * the choice of a new user's file id, is made under an exclusive lock on a
+ * sibling {@code .lock} file, on top of the latest content, so concurrent
+ * writers never drop each other's entries or pick the same id.
+ */
+final class SavedUserCatalog {
+
+    /**
+     * Name of the catalog file inside the save directory.
+     */
+    static final String FILE_NAME = "catalog.idx";
+
+    private static final int MIN_LOG_CHANGES = 64;
+    private static final TypeReference<List<SavedUserEntry>> ENTRY_LIST = new TypeReference<>() {
+    };
+    private static final Logger logger = LoggerFactory.getSafeLogger(SavedUserCatalog.class);
+
+    private final Path dir;
+    private final Path file;
+    private final Path logFile;
+    private final Path lockFile;
+    private final ObjectMapper mapper;
+    /**
+     * Guards the in-memory state. Unlike a monitor it does not pin the virtual
+     * threads of the key rotation job while they wait on catalog file I/O.
+     */
+    private final ReentrantLock monitor = new ReentrantLock();
+    private Map<String, SavedUserEntry> entries;
+    private FileStamp loaded;
+    private long logOffset;
+    private int logChanges;
+    private boolean lockHeld;
+
+    /**
+     * Identifies one version of the base file; a replaced file gets a new key.
+     */
+    private record FileStamp(Object fileKey, long lastModified, long size) {
+    }
+
+    /**
+     * One line of the change log: the new entry of a user, or null if it was removed.
+     */
+    record Change(@JsonProperty("name") String name, @JsonProperty("entry") SavedUserEntry entry) {
+    }
+
+    @FunctionalInterface
+    private interface CatalogChange {
+        void apply() throws IOException;
+    }
+
+    /**
+     * Instantiates a new Saved user catalog.
+     *
+     * @param dir    the save directory
+     * @param mapper the mapper reading and writing the catalog
+     */
+    SavedUserCatalog(Path dir, ObjectMapper mapper) {
+        this.dir = dir;
+        this.file = dir.resolve(FILE_NAME);
+        this.logFile = dir.resolve(FILE_NAME + ".log");
+        this.lockFile = dir.resolve(FILE_NAME + ".lock");
+        this.mapper = mapper;
+    }
+
+    /**
+     * Gets the entry of a user.
+     *
+     * @param name the username
+     * @return the entry, empty if the user has no saved files
+     */
+    Optional<SavedUserEntry> get(String name) {
+        monitor.lock();
+        try {
+            return Optional.ofNullable(entries().get(name));
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    /**
+     * Gets all entries sorted by username.
+     *
+     * @return the entries
+     */
+    List<SavedUserEntry> list() {
+        monitor.lock();
+        try {
+            return entries().values().stream()
+                    .sorted(Comparator.comparing(SavedUserEntry::name))
+                    .toList();
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    /**
+     * Gets the file id of a user without reserving it: the catalog's one for
+     * saved users, the id {@link #reserveFileId} would pick now otherwise.
+     *
+     * @param name      the username
+     * @param preferred the id to use if it is free
+     * @return the file id
+     */
+    String fileIdFor(String name, String preferred) {
+        monitor.lock();
+        try {
+            SavedUserEntry entry = entries().get(name);
+            return entry != null ? entry.fileId() : freeFileId(preferred);
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    /**
+     * Gets the file id of a user, reserving a free one for users not saved yet.
+     * The id is chosen and recorded holding the catalog lock, so two processes
+     * saving new users never pick the same one. The reserved entry has no
+     * transactions and an unknown format version until the first save completes.
+     *
+     * @param name      the username
+     * @param preferred the id to use if it is free
+     * @return the file id
+     * @throws IOException if the catalog cannot be written
+     */
+    String reserveFileId(String name, String preferred) throws IOException {
+        monitor.lock();
+        try {
+            SavedUserEntry[] reserved = new SavedUserEntry[1];
+            locked(() -> {
+                reserved[0] = entries().get(name);
+                if (reserved[0] == null) {
+                    reserved[0] = new SavedUserEntry(name, freeFileId(preferred), 0, System.currentTimeMillis(), 0, -1);
+                    write(new Change(name, reserved[0]));
+                }
+            });
+            return reserved[0].fileId();
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    /**
+     * Adds or replaces the entry of a user and persists the change.
+     *
+     * @param entry the entry
+     * @throws IOException if the catalog cannot be written
+     */
+    void put(SavedUserEntry entry) throws IOException {
+        monitor.lock();
+        try {
+            locked(() -> write(new Change(entry.name(), entry)));
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    /**
+     * Updates the entry of a user, if present, and persists the change.
+     *
+     * @param name    the username
+     * @param updater produces the new entry from the current one
+     * @throws IOException if the catalog cannot be written
+     */
+    void update(String name, UnaryOperator<SavedUserEntry> updater) throws IOException {
+        monitor.lock();
+        try {
+            locked(() -> {
+                SavedUserEntry entry = entries().get(name);
+                if (entry != null) {
+                    write(new Change(name, updater.apply(entry)));
+                }
+            });
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    /**
+     * Removes the entry of a user and persists the change.
+     *
+     * @param name the username
+     * @throws IOException if the catalog cannot be written
+     */
+    void remove(String name) throws IOException {
+        monitor.lock();
+        try {
+            locked(() -> {
+                if (entries().containsKey(name)) {
+                    write(new Change(name, null));
+                }
+            });
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    private String freeFileId(String preferred) {
+        Set<String> used = new HashSet<>();
+        entries().values().forEach(e -> used.add(e.fileId()));
+        String candidate = preferred;
+        for (int i = 2; used.contains(candidate); i++) {
+            candidate = preferred + "_" + i;
+        }
+        return candidate;
+    }
+
+    /**
+     * Gets the entries, catching up with changes made by other processes.
+     */
+    private Map<String, SavedUserEntry> entries() {
+        FileStamp current = stamp();
+        if (current == null && entries == null) {
+            entries = new LinkedHashMap<>();
+            try {
+                locked(() -> {
+                    if (Files.exists(file)) {
+                        read();
+                    } else {
+                        rebuild();
+                        compact();
+                    }
+                });
+            } catch (IOException e) {
+                logger.warning(() -> "Could not write the rebuilt catalog: " + e.getMessage());
+            }
+        } else if (current != null && (entries == null || !current.equals(loaded))) {
+            read();
+        } else if (sizeOf(logFile) != logOffset) {
+            readLog();
+        }
+        return entries;
+    }
+
+    private void read() {
+        entries = new LinkedHashMap<>();
+        loaded = stamp();
+        logOffset = 0;
+        logChanges = 0;
+        try {
+            mapper.readValue(file.toFile(), ENTRY_LIST).forEach(e -> entries.put(e.name(), e));
+        } catch (IOException e) {
+            logger.warning(() -> "Unreadable catalog, rebuilding from the save directory: " + e.getMessage());
+            entries.clear();
+            rebuild();
+        }
+        readLog();
+    }
+
+    /**
+     * Applies the log lines written since the last read. A line that cannot be
+     * parsed is the remains of an interrupted append and is skipped.
+     */
+    private void readLog() {
+        long size = sizeOf(logFile);
+        if (size < logOffset) {
+            // Folded into a base this process has not seen yet
+            read();
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(size - logOffset));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, logOffset + buffer.position()) < 0) break;
+            }
+            // Only complete lines: a line still being appended is read next time
+            int end = buffer.position();
+            while (end > 0 && buffer.get(end - 1) != '\n') {
+                end--;
+            }
+            String text = new String(buffer.array(), 0, end, StandardCharsets.UTF_8);
+            for (String line : text.split("\n")) {
+                if (line.isBlank()) continue;
+                try {
+                    apply(mapper.readValue(line, Change.class));
+                } catch (IOException e) {
+                    logger.warning(() -> "Skipping unreadable catalog change in: " + logFile);
+                }
+            }
+            logOffset += end;
+        } catch (IOException e) {
+            if (Files.exists(logFile)) {
+                logger.warning(() -> "Could not read catalog changes: " + e.getMessage());
+            }
+        }
+    }
+
+    private void apply(Change change) {
+        if (change.entry() == null) {
+            entries.remove(change.name());
+        } else {
+            entries.put(change.name(), change.entry());
+        }
+        logChanges++;
+    }
+
+    /**
+     * Appends a change to the log, on top of everything other processes wrote,
+     * folding the log into the base once it holds more changes than the base
+     * holds entries. Callers hold the catalog lock.
+     */
+    private void write(Change change) throws IOException {
+        entries();
+        byte[] line = (mapper.writeValueAsString(change) + "\n").getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long end = channel.size();
+            ByteBuffer buffer = ByteBuffer.wrap(line);
+            if (end > 0 && !endsWithNewline(channel, end)) {
+                // Keep the remains of an interrupted append on a line of their own
+                buffer = ByteBuffer.allocate(line.length + 1).put((byte) '\n').put(line).flip();
+            }
+            long position = end;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+            logOffset = position;
+        }
+        apply(change);
+        if (logChanges > Math.max(MIN_LOG_CHANGES, entries.size())) {
+            compact();
+        }
+    }
+
+    private static boolean endsWithNewline(FileChannel channel, long size) throws IOException {
+        ByteBuffer last = ByteBuffer.allocate(1);
+        return channel.read(last, size - 1) == 1 && last.get(0) == '\n';
+    }
+
+    private FileStamp stamp() {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return new FileStamp(Objects.requireNonNullElse(attributes.fileKey(), ""),
+                    attributes.lastModifiedTime().toMillis(), attributes.size());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Applies a change holding the catalog lock, which other processes honour too.
+     */
+    private void locked(CatalogChange change) throws IOException {
+        if (lockHeld) {
+            change.apply();
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock ignored = channel.lock()) {
+            lockHeld = true;
+            change.apply();
+        } finally {
+            lockHeld = false;
+        }
+    }
+
+    /**
+     * Registers the files already in the save directory, in the flat layout or
+     * in shard directories. Their exact usernames are not known, so file names
+     * are used; transaction counts are filled in by the next save.
+     */
+    private void rebuild() {
+        try (Stream<Path> files = Files.walk(dir, 2)) {
+            for (Path path : files.filter(Files::isRegularFile).toList()) {
+                String fileName = path.getFileName().toString();
+                boolean snapshot = fileName.endsWith(UserMementoManager.SNAPSHOT);
+                if (!snapshot && !fileName.endsWith(UserMementoManager.JSON)) continue;
+
+                String fileId = fileName.substring(0, fileName.lastIndexOf('.'));
+                if (entries.containsKey(fileId) && !snapshot) continue;
+                Path journal = path.resolveSibling(fileId + UserMementoManager.JOURNAL);
+                long size = Files.size(path) + (Files.exists(journal) ? Files.size(journal) : 0);
+                entries.put(fileId, new SavedUserEntry(fileId, fileId, size,
+                        Files.getLastModifiedTime(path).toMillis(), -1, snapshot ? formatVersion(path) : 0));
+            }
+            logger.info(() -> "Built saved user catalog with " + entries.size() + " entries");
+        } catch (IOException e) {
+            logger.warning(() -> "Could not scan save directory: " + e.getMessage());
+        }
+    }
+
+    private static int formatVersion(Path snapshot) {
+        try (InputStream in = Files.newInputStream(snapshot)) {
+            DataInputStream header = new DataInputStream(in);
+            header.readInt();
+            return header.readByte();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Writes all entries to a new base, forced to disk before it is renamed into
+     * place, then drops the log it replaces.
+     */
+    private void compact() throws IOException {
+        Path temp = Files.createTempFile(dir, FILE_NAME + ".", ".tmp");
+        try {
+            byte[] content = mapper.writeValueAsBytes(new ArrayList<>(entries.values()));
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            UserMementoManager.replace(temp, file);
+            Files.deleteIfExists(logFile);
+            loaded = stamp();
+            logOffset = 0;
+            logChanges = 0;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package it.finance.sb.memento;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Catalog record describing one saved user.
+ *
+ * @param name             the exact username
+ * @param fileId           the base name of the user's files in the save directory
+ * @param size             the bytes used by snapshot and journal
+ * @param lastModified     the time of the last save, in epoch milliseconds
+ * @param transactionCount the number of saved transactions, -1 if not known yet
+ * @param formatVersion    the snapshot format version, 0 for the legacy text format, -1 if unknown
+ */
+public record SavedUserEntry(@JsonProperty("name") String name,
+                             @JsonProperty("fileId") String fileId,
+                             @JsonProperty("size") long size,
+                             @JsonProperty("lastModified") long lastModified,
+                             @JsonProperty("transactionCount") int transactionCount,
+                             @JsonProperty("formatVersion") int formatVersion) {
+}
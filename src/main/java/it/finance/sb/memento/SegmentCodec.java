@@ -0,0 +1,66 @@
+package it.finance.sb.memento;
+
+import it.finance.sb.memento.SegmentedSnapshotFormat.Header;
+import it.finance.sb.memento.SegmentedSnapshotFormat.TransactionSegment;
+
+import java.io.IOException;
+
+/**
+ * Turns the plain content of snapshot segments into bytes and back.
+ * Encryption is applied on top by {@link SegmentedSnapshotFormat}; the codec
+ * only decides how headers and transaction segments are laid out.
+ * Transaction segments may refer to data held by the header, which is why
+ * their encoder and decoder are obtained from it.
+ */
+interface SegmentCodec {
+
+    /**
+     * Encodes the header segment.
+     *
+     * @param header the header
+     * @return the encoded header
+     * @throws IOException if encoding fails
+     */
+    byte[] encodeHeader(Header header) throws IOException;
+
+    /**
+     * Decodes the header segment.
+     *
+     * @param data the encoded header
+     * @return the header
+     * @throws IOException if the content is malformed
+     */
+    Header decodeHeader(byte[] data) throws IOException;
+
+    /**
+     * Gets an encoder for the transaction segments described by the header.
+     *
+     * @param header the header written with the segments
+     * @return the encoder
+     */
+    SegmentEncoder encoder(Header header);
+
+    /**
+     * Gets a decoder for the transaction segments described by the header.
+     *
+     * @param header the header read with the segments
+     * @return the decoder
+     */
+    SegmentDecoder decoder(Header header);
+
+    /**
+     * Encodes one transaction segment, safe to call from several threads.
+     */
+    @FunctionalInterface
+    interface SegmentEncoder {
+        byte[] encode(TransactionSegment segment) throws IOException;
+    }
+
+    /**
+     * Decodes one transaction segment, safe to call from several threads.
+     */
+    @FunctionalInterface
+    interface SegmentDecoder {
+        TransactionSegment decode(byte[] data) throws IOException;
+    }
+}
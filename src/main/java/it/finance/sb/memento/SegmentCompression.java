@@ -0,0 +1,129 @@
+package it.finance.sb.memento;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression applied to segment content before it is encrypted.
+ * Ciphertext does not compress, so this is the only place where snapshot
+ * size can be traded for CPU time. A deflated segment starts with its
+ * original length, which bounds the buffer used to inflate it.
+ */
+enum SegmentCompression {
+    /**
+     * Segments are stored as encoded.
+     */
+    NONE,
+    /**
+     * Segments are compressed with {@link Deflater}.
+     */
+    DEFLATE;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Gets the compression stored under the given file header id.
+     *
+     * @param id the id
+     * @return the compression
+     * @throws IOException if the id is unknown
+     */
+    static SegmentCompression fromId(int id) throws IOException {
+        SegmentCompression[] values = values();
+        if (id < 0 || id >= values.length) {
+            throw new IOException("Unknown snapshot compression: " + id);
+        }
+        return values[id];
+    }
+
+    /**
+     * Gets the id stored in the file header.
+     *
+     * @return the id
+     */
+    int id() {
+        return ordinal();
+    }
+
+    /**
+     * Compresses segment content.
+     *
+     * @param plain the encoded segment
+     * @param level the {@link Deflater} level
+     * @return the stored bytes
+     */
+    byte[] compress(byte[] plain, int level) {
+        if (this == NONE) return plain;
+
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(plain);
+            deflater.finish();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(plain.length / 2 + Integer.BYTES);
+            writeLength(bytes, plain.length);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                bytes.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return bytes.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Restores segment content.
+     *
+     * @param stored    the stored bytes
+     * @param maxLength the largest accepted original length
+     * @return the encoded segment
+     * @throws IOException if the content is corrupt or too large
+     */
+    byte[] decompress(byte[] stored, int maxLength) throws IOException {
+        if (this == NONE) return stored;
+
+        if (stored.length < Integer.BYTES) {
+            throw new IOException("Compressed segment is truncated");
+        }
+        int length = (stored[0] & 0xFF) << 24 | (stored[1] & 0xFF) << 16 | (stored[2] & 0xFF) << 8 | (stored[3] & 0xFF);
+        if (length < 0 || length > maxLength) {
+            throw new IOException("Invalid compressed segment length: " + length);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored, Integer.BYTES, stored.length - Integer.BYTES);
+            byte[] plain = new byte[length];
+            byte[] overflow = new byte[1];
+            int read = 0;
+            while (!inflater.finished()) {
+                // Once the declared length is reached, only the end of the stream may follow
+                int n = read < length ? inflater.inflate(plain, read, length - read) : inflater.inflate(overflow);
+                if (read == length && n > 0) {
+                    throw new IOException("Compressed segment is longer than declared");
+                }
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Compressed segment is truncated");
+                }
+                read += n;
+            }
+            if (read != length) {
+                throw new IOException("Compressed segment is shorter than declared");
+            }
+            return plain;
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed segment is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeLength(ByteArrayOutputStream bytes, int length) {
+        bytes.write(length >>> 24);
+        bytes.write(length >>> 16);
+        bytes.write(length >>> 8);
+        bytes.write(length);
+    }
+}
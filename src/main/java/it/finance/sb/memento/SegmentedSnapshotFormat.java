@@ -0,0 +1,352 @@
+package it.finance.sb.memento;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import it.finance.sb.logging.LoggerFactory;
+import it.finance.sb.mapper.DeferredList;
+import it.finance.sb.mapper.UserSnapshot;
+import it.finance.sb.model.account.AccountInterface;
+import it.finance.sb.model.transaction.AbstractTransaction;
+import it.finance.sb.model.transaction.ExpenseTransaction;
+import it.finance.sb.model.transaction.IncomeTransaction;
+import it.finance.sb.model.transaction.MovementTransaction;
+import it.finance.sb.model.transaction.TransactionType;
+import it.finance.sb.model.user.Gender;
+import it.finance.sb.utility.EncryptionUtils;
+import it.finance.sb.utility.KeyProvider;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Segmented snapshot body: a header segment with profile, categories and accounts,
+ * followed by transaction segments of at most {@link #SEGMENT_SIZE} records each.
+ * Every segment is serialized and encrypted on its own, bound to the username and
+ * to its position, so segments are processed in parallel across cores and a corrupt
+ * transaction segment only loses its own records.
+ * <p>
+ * Layout: key version, segment count, then for each segment its length and its
+ * IV plus ciphertext. Transaction segments are grouped by type in declaration
+ * order and the header records how many belong to each type, so the history of
+ * a type can be decrypted on its own when it is first needed. How the content
+ * of a segment is laid out is up to the {@link SegmentCodec}; encoded segments
+ * can be compressed before they are encrypted (see {@link SegmentCompression}).
+ */
+final class SegmentedSnapshotFormat {
+
+    /**
+     * Maximum number of transactions per segment.
+     */
+    static final int SEGMENT_SIZE = 2_000;
+
+    private static final int MAX_SEGMENT_BYTES = 256 * 1024 * 1024;
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    /**
+     * Workers shared by every save and load; daemon threads, so they never keep the JVM alive.
+     */
+    private static final ExecutorService WORKERS = Executors.newFixedThreadPool(PARALLELISM,
+            Thread.ofPlatform().name("snapshot-segment-", 1).daemon().factory());
+    private static final Logger logger = LoggerFactory.getSafeLogger(SegmentedSnapshotFormat.class);
+
+    private SegmentedSnapshotFormat() {
+        throw new IllegalStateException("Format class");
+    }
+
+    /**
+     * Header segment content.
+     */
+    record Header(@JsonProperty("name") String name,
+                  @JsonProperty("age") int age,
+                  @JsonProperty("gender") Gender gender,
+                  @JsonProperty("password") String password,
+                  @JsonProperty("categories") List<String> categories,
+                  @JsonProperty("accounts") List<AccountInterface> accounts,
+                  @JsonProperty("maxTransactionId") Integer maxTransactionId,
+                  @JsonProperty("segmentsPerType") Map<TransactionType, Integer> segmentsPerType,
+                  @JsonProperty("detachedAccounts") List<AccountInterface> detachedAccounts,
+                  @JsonProperty("transactionCategories") List<String> transactionCategories) {
+    }
+
+    /**
+     * Transaction segment content.
+     */
+    record TransactionSegment(@JsonProperty("type") TransactionType type,
+                              @JsonProperty("transactions") List<AbstractTransaction> transactions) {
+    }
+
+    /**
+     * Writes the snapshot as encrypted segments.
+     * At most a few segments per core are in flight, so memory stays bounded
+     * by the segment size rather than by the ledger size.
+     *
+     * @param out      the target stream
+     * @param snapshot the snapshot
+     * @param codec       the codec encoding segment content
+     * @param compression the compression applied before encryption
+     * @param level       the compression level
+     * @throws IOException              if writing or encoding fails
+     * @throws GeneralSecurityException if encryption fails
+     */
+    static void write(DataOutputStream out, UserSnapshot snapshot, SegmentCodec codec,
+                      SegmentCompression compression, int level)
+            throws IOException, GeneralSecurityException {
+        String username = snapshot.name();
+        int keyVersion = KeyProvider.getInstance().getCurrentVersion();
+
+        List<TransactionSegment> segments = new ArrayList<>();
+        Map<TransactionType, Integer> segmentsPerType = new EnumMap<>(TransactionType.class);
+        Set<String> transactionCategories = new LinkedHashSet<>();
+        Set<Integer> accountIds = new HashSet<>();
+        snapshot.accounts().forEach(account -> accountIds.add(account.getAccountId()));
+        Map<Integer, AccountInterface> detachedAccounts = new LinkedHashMap<>();
+        int maxTransactionId = 0;
+        for (TransactionType type : TransactionType.values()) {
+            List<AbstractTransaction> list = snapshot.transactions().getOrDefault(type, List.of());
+            for (int from = 0; from < list.size(); from += SEGMENT_SIZE) {
+                segments.add(new TransactionSegment(type, list.subList(from, Math.min(list.size(), from + SEGMENT_SIZE))));
+            }
+            segmentsPerType.put(type, (list.size() + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            for (AbstractTransaction tx : list) {
+                maxTransactionId = Math.max(maxTransactionId, tx.getTransactionId());
+                if (tx.getCategory() != null) transactionCategories.add(tx.getCategory());
+                // Accounts deleted from the user can still be referenced by old transactions
+                for (AccountInterface account : referencedAccounts(tx)) {
+                    if (!accountIds.contains(account.getAccountId())) {
+                        detachedAccounts.putIfAbsent(account.getAccountId(), account);
+                    }
+                }
+            }
+        }
+        Header header = new Header(snapshot.name(), snapshot.age(), snapshot.gender(), snapshot.password(),
+                snapshot.categories(), snapshot.accounts(), maxTransactionId, segmentsPerType,
+                List.copyOf(detachedAccounts.values()), List.copyOf(transactionCategories));
+        SegmentCodec.SegmentEncoder encoder = codec.encoder(header);
+
+        out.writeInt(keyVersion);
+        out.writeInt(segments.size() + 1);
+
+        writeSegment(out, EncryptionUtils.encryptBytes(
+                compression.compress(codec.encodeHeader(header), level), binding(username, 0), keyVersion));
+        Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+        try {
+            for (int i = 0; i < segments.size(); i++) {
+                TransactionSegment segment = segments.get(i);
+                String binding = binding(username, i + 1);
+                inFlight.add(WORKERS.submit(() ->
+                        EncryptionUtils.encryptBytes(compression.compress(encoder.encode(segment), level), binding, keyVersion)));
+                if (inFlight.size() >= PARALLELISM * 2) {
+                    writeSegment(out, await(inFlight.poll()));
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                writeSegment(out, await(inFlight.poll()));
+            }
+        } finally {
+            // A failed save does not leave its remaining segments queued on the shared workers
+            inFlight.forEach(future -> future.cancel(true));
+        }
+    }
+
+    /**
+     * Reads and decrypts the segments in parallel.
+     * An unreadable header fails the load; an unreadable transaction segment is
+     * logged and skipped so that the rest of the ledger is still restored.
+     * <p>
+     * With {@code lazy} set, only the header is decrypted right away: the
+     * transactions of each type come back as a {@link DeferredList} holding the
+     * still encrypted segments, and are decrypted and parsed on first access.
+     * Transaction ids are reserved from the header, so new transactions never
+     * collide with history that has not been loaded yet.
+     *
+     * @param in       the source stream
+     * @param username the username the snapshot is bound to
+     * @param codec       the codec decoding segment content
+     * @param compression the compression the segments were stored with
+     * @param lazy        whether transaction segments are decoded on first access
+     * @return the snapshot
+     * @throws IOException if the header segment cannot be read
+     */
+    static UserSnapshot read(DataInputStream in, String username, SegmentCodec codec,
+                             SegmentCompression compression, boolean lazy) throws IOException {
+        int keyVersion = in.readInt();
+        int count = in.readInt();
+
+        List<byte[]> encrypted = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            try {
+                encrypted.add(readSegment(in));
+            } catch (IOException e) {
+                if (i == 0) throw e;
+                int missing = count - i;
+                logger.warning(() -> "Snapshot truncated, " + missing + " segments missing for: " + username);
+                break;
+            }
+        }
+        if (encrypted.isEmpty()) {
+            throw new IOException("Snapshot has no header segment");
+        }
+
+        Header header;
+        try {
+            header = codec.decodeHeader(compression.decompress(
+                    EncryptionUtils.decryptBytes(encrypted.get(0), binding(username, 0), keyVersion), MAX_SEGMENT_BYTES));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Header segment cannot be decrypted", e);
+        }
+
+        Map<TransactionType, List<AbstractTransaction>> transactions = new EnumMap<>(TransactionType.class);
+        SegmentCodec.SegmentDecoder decoder = codec.decoder(header);
+        // Snapshots written before the per-type counts existed can only be read eagerly
+        if (lazy && header.segmentsPerType() != null && header.maxTransactionId() != null) {
+            AbstractTransaction.reserveIdsUpTo(header.maxTransactionId());
+            int from = 1;
+            for (TransactionType type : TransactionType.values()) {
+                int to = Math.min(encrypted.size(), from + header.segmentsPerType().getOrDefault(type, 0));
+                if (to > from) {
+                    List<byte[]> typeSegments = List.copyOf(encrypted.subList(from, to));
+                    int offset = from;
+                    transactions.put(type, new DeferredList<>(() ->
+                            flatten(decode(typeSegments, offset, username, keyVersion, compression, decoder))));
+                }
+                from = Math.max(from, to);
+            }
+        } else {
+            for (TransactionSegment segment : decode(encrypted.subList(1, encrypted.size()), 1, username, keyVersion, compression, decoder)) {
+                transactions.computeIfAbsent(segment.type(), t -> new ArrayList<>()).addAll(segment.transactions());
+            }
+        }
+
+        return new UserSnapshot(header.name(), header.age(), header.gender(), header.password(),
+                header.categories(), header.accounts(), transactions);
+    }
+
+    /**
+     * Decrypts and parses transaction segments in parallel, skipping unreadable ones.
+     *
+     * @param offset position of the first segment in the file, part of its binding
+     */
+    private static List<TransactionSegment> decode(List<byte[]> encrypted, int offset, String username,
+                                                   int keyVersion, SegmentCompression compression,
+                                                   SegmentCodec.SegmentDecoder decoder) {
+        List<TransactionSegment> result = new ArrayList<>(encrypted.size());
+        List<Future<TransactionSegment>> decoded = new ArrayList<>(encrypted.size());
+        for (int i = 0; i < encrypted.size(); i++) {
+            byte[] segment = encrypted.get(i);
+            String binding = binding(username, offset + i);
+            decoded.add(WORKERS.submit(() ->
+                    decoder.decode(compression.decompress(
+                            EncryptionUtils.decryptBytes(segment, binding, keyVersion), MAX_SEGMENT_BYTES))));
+        }
+        for (int i = 0; i < decoded.size(); i++) {
+            try {
+                result.add(await(decoded.get(i)));
+            } catch (IOException e) {
+                int index = offset + i;
+                logger.warning(() -> "Skipping unreadable segment " + index + " for: " + username + " (" + e.getMessage() + ")");
+            }
+        }
+        return result;
+    }
+
+    private static List<AccountInterface> referencedAccounts(AbstractTransaction tx) {
+        List<AccountInterface> accounts = new ArrayList<>(2);
+        switch (tx) {
+            case IncomeTransaction income -> accounts.add(income.getToAccount());
+            case ExpenseTransaction expense -> accounts.add(expense.getFromAccount());
+            case MovementTransaction movement -> {
+                accounts.add(movement.getToAccount());
+                accounts.add(movement.getFromAccount());
+            }
+            default -> { }
+        }
+        accounts.removeIf(Objects::isNull);
+        return accounts;
+    }
+
+    private static List<AbstractTransaction> flatten(List<TransactionSegment> segments) {
+        List<AbstractTransaction> result = new ArrayList<>();
+        segments.forEach(segment -> result.addAll(segment.transactions()));
+        return result;
+    }
+
+    /**
+     * Re-encrypts a segmented body with another key version, one segment at a time.
+     * Segment content is neither decompressed nor parsed, so this works for every
+     * codec and keeps memory bounded by the segment size. Unlike {@link #read},
+     * any unreadable segment fails the whole operation.
+     *
+     * @param in         the body to re-encrypt
+     * @param out        the target stream
+     * @param username   the username the snapshot is bound to
+     * @param keyVersion the key version to encrypt with
+     * @throws IOException              if reading or writing fails
+     * @throws GeneralSecurityException if a segment cannot be decrypted or encrypted
+     */
+    static void reencrypt(DataInputStream in, DataOutputStream out, String username, int keyVersion)
+            throws IOException, GeneralSecurityException {
+        int oldVersion = in.readInt();
+        int count = in.readInt();
+        out.writeInt(keyVersion);
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            String binding = binding(username, i);
+            byte[] plain = EncryptionUtils.decryptBytes(readSegment(in), binding, oldVersion);
+            writeSegment(out, EncryptionUtils.encryptBytes(plain, binding, keyVersion));
+        }
+    }
+
+    /**
+     * Binds a segment to its owner and position, so segments cannot be swapped.
+     */
+    private static String binding(String username, int index) {
+        return username + "#" + index;
+    }
+
+    private static void writeSegment(DataOutputStream out, byte[] encrypted) throws IOException {
+        out.writeInt(encrypted.length);
+        out.write(encrypted);
+    }
+
+    private static byte[] readSegment(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_SEGMENT_BYTES) {
+            throw new IOException("Invalid segment length: " + length);
+        }
+        byte[] encrypted = new byte[length];
+        in.readFully(encrypted);
+        return encrypted;
+    }
+
+    /**
+     * Waits for a segment task, unwrapping its failure into an IOException.
+     */
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Snapshot processing was interrupted.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            throw new IOException("Segment processing failed: " + cause.getMessage(), cause);
+        }
+    }
+}
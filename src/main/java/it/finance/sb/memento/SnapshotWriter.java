@@ -0,0 +1,200 @@
+package it.finance.sb.memento;
+
+import it.finance.sb.logging.LoggerFactory;
+import it.finance.sb.mapper.UserJournalEntry;
+import it.finance.sb.mapper.UserMapper;
+import it.finance.sb.mapper.UserSnapshot;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Background writer for the {@link UserMementoManager}.
+ * Save requests are queued per user and written by a single thread, so the
+ * caller never waits on disk. Requests that arrive while a write is in progress
+ * are merged (group commit): consecutive journal entries become one entry, a
+ * journal entry on top of a pending snapshot is applied to it, and a snapshot
+ * replaces whatever was pending before it. The result is one write per user
+ * for every burst of saves.
+ */
+public class SnapshotWriter implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getSafeLogger(SnapshotWriter.class);
+
+    private final Object lock = new Object();
+    private final Map<String, Object> pending = new LinkedHashMap<>();
+    private final Set<String> failed = new LinkedHashSet<>();
+    private final Thread thread;
+    private boolean writing;
+    private boolean closed;
+
+    /**
+     * Instantiates a new Snapshot writer and starts its thread.
+     */
+    public SnapshotWriter() {
+        thread = new Thread(this::run, "snapshot-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a full snapshot, replacing anything pending for the same user.
+     *
+     * @param snapshot the snapshot
+     */
+    public void submit(UserSnapshot snapshot) {
+        Objects.requireNonNull(snapshot, "UserSnapshot cannot be null.");
+        enqueue(snapshot.name(), snapshot);
+    }
+
+    /**
+     * Queues a journal entry, merging it into anything pending for the same user.
+     *
+     * @param entry the journal entry
+     */
+    public void submit(UserJournalEntry entry) {
+        Objects.requireNonNull(entry, "UserJournalEntry cannot be null.");
+        enqueue(entry.name(), entry);
+    }
+
+    /**
+     * Tells whether a background write for the user failed since the last call.
+     * The caller should then save a full snapshot, since the changes of the lost
+     * write are no longer tracked anywhere else.
+     *
+     * @param username the username
+     * @return true if a write failed
+     */
+    public boolean consumeFailure(String username) {
+        synchronized (lock) {
+            return failed.remove(username);
+        }
+    }
+
+    /**
+     * Gets the users whose last background write failed and was not recovered by a
+     * later save. Their unsaved changes are lost if the session ends now.
+     *
+     * @return the usernames, in the order the failures happened
+     */
+    public List<String> getFailedUsers() {
+        synchronized (lock) {
+            return List.copyOf(failed);
+        }
+    }
+
+    /**
+     * Drops any pending write for the user, e.g. before deleting it.
+     *
+     * @param username the username
+     */
+    public void discard(String username) {
+        synchronized (lock) {
+            pending.remove(username);
+            failed.remove(username);
+        }
+    }
+
+    /**
+     * Waits until every queued write has reached the disk.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+        synchronized (lock) {
+            while (!pending.isEmpty() || writing) {
+                lock.wait();
+            }
+        }
+    }
+
+    /**
+     * Writes everything still queued and stops the writer thread.
+     * Writes that failed stay reported by {@link #getFailedUsers()}.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warning("Interrupted while flushing pending snapshots.");
+        }
+    }
+
+    private void enqueue(String username, Object request) {
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Snapshot writer is closed");
+            }
+            pending.merge(username, request, SnapshotWriter::merge);
+            lock.notifyAll();
+        }
+    }
+
+    private static Object merge(Object earlier, Object later) {
+        if (later instanceof UserJournalEntry entry) {
+            return earlier instanceof UserSnapshot snapshot
+                    ? UserMapper.applyJournalEntry(snapshot, entry)
+                    : UserMapper.mergeJournalEntries((UserJournalEntry) earlier, entry);
+        }
+        return later;
+    }
+
+    private void run() {
+        while (true) {
+            Map<String, Object> batch;
+            synchronized (lock) {
+                while (pending.isEmpty() && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        // Only close() stops the writer, pending saves must not be lost
+                        logger.warning("Snapshot writer interrupted, continuing.");
+                    }
+                }
+                if (pending.isEmpty()) {
+                    lock.notifyAll();
+                    return;
+                }
+                batch = new LinkedHashMap<>(pending);
+                pending.clear();
+                writing = true;
+            }
+
+            batch.forEach(this::write);
+
+            synchronized (lock) {
+                writing = false;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void write(String username, Object request) {
+        try {
+            if (request instanceof UserSnapshot snapshot) {
+                UserMementoManager.save(snapshot);
+            } else {
+                UserMementoManager.append((UserJournalEntry) request);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.SEVERE, "Background save failed for user '" + username + "'", e);
+            synchronized (lock) {
+                failed.add(username);
+            }
+        }
+    }
+}
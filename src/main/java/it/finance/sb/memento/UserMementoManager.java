@@ -3,63 +3,278 @@ package it.finance.sb.memento;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import it.finance.sb.exception.ConcurrentSaveException;
 import it.finance.sb.logging.LoggerFactory;
+import it.finance.sb.mapper.UserJournalEntry;
+import it.finance.sb.mapper.UserMapper;
 import it.finance.sb.mapper.UserSnapshot;
 import it.finance.sb.utility.EncryptionUtils;
+import it.finance.sb.utility.KeyProvider;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.GeneralSecurityException;
-import java.util.Arrays;
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
 
 /**
  * The type User memento manager.
+ * Snapshots are written to a binary file as independently encrypted segments
+ * (see {@link SegmentedSnapshotFormat}), so a save never holds the serialized
+ * ledger in memory as a whole and large ledgers are processed on every core.
+ * Segment content uses the compact {@link BinarySegmentCodec} and is deflated
+ * before encryption at a configurable level (see {@link #setCompressionLevel}); the format
+ * version in the file header tells which codec wrote it, so older JSON based
+ * snapshots and legacy Base64 {@code .json} snapshots are still read and replaced
+ * on the next save. A readable JSON copy is available through {@link #exportJson}.
+ * Saved users are listed from the {@link SavedUserCatalog}, which also maps
+ * exact usernames to their file names.
+ * <p>
+ * The files of a user live in one of {@value #SHARDS} subdirectories chosen by
+ * hashing the file name, so no directory grows with the number of users. Files
+ * found in the flat layout of earlier versions are moved into their subdirectory
+ * once, at startup, so resolving a path never takes a lock or touches the disk.
+ * <p>
+ * Several processes may share the save directory. Every operation on a user's
+ * files holds an exclusive {@link FileLock} on the user's {@code .lock} file,
+ * which also stores a revision number incremented by every write. A process
+ * remembers the revision it last loaded or wrote, and a save on top of a
+ * revision written by someone else fails with a {@link ConcurrentSaveException}
+ * instead of silently overwriting it.
  */
 public class UserMementoManager {
     public static final String JSON = ".json";
-    private static final String SAVE_DIR = "saved_users";
+    public static final String SNAPSHOT = ".snap";
+    public static final String JOURNAL = ".journal";
+    public static final String LOCK = ".lock";
+    private static final String TEMP = ".tmp";
+    private static final int MAGIC = 0x46545331; // "FTS1"
+    private static final long RETIRED = -1;
+    private static final byte FORMAT_VERSION = 5;
+    private static final byte FORMAT_BINARY = 4;
+    private static final byte FORMAT_SEGMENTED_JSON = 3;
+    private static final byte FORMAT_STREAM = 2;
+    private static final byte FORMAT_UNVERSIONED_KEY = 1;
+    private static final Path DEFAULT_SAVE_DIR = Path.of("saved_users");
+    static final int SHARDS = 256;
     private static final ObjectMapper mapper;
+    private static volatile Path saveDir;
+    private static volatile SavedUserCatalog catalog;
+    private static final SegmentCodec binaryCodec = new BinarySegmentCodec();
+    private static final SegmentCodec jsonCodec;
+    private static volatile int compressionLevel = Integer.getInteger("financetrack.compression.level", Deflater.BEST_SPEED);
+    private static final Map<String, UserLock> userLocks = new ConcurrentHashMap<>();
+    private static final Map<String, Long> knownRevisions = new ConcurrentHashMap<>();
     private static final Logger logger = LoggerFactory.getSafeLogger(UserMementoManager.class);
 
+    /**
+     * In-process side of a user's lock. A JVM cannot take the same file lock twice,
+     * so threads queue here and only the outermost holder locks the file.
+     */
+    private static final class UserLock extends ReentrantLock {
+        private FileChannel channel;
+    }
+
+    @FunctionalInterface
+    private interface LockedAction<T> {
+        T run(FileChannel lock) throws IOException;
+    }
+
     static {
-        mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        mapper = new ObjectMapper();
         mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
-        File dir = new File(SAVE_DIR);
+        jsonCodec = new JsonSegmentCodec(mapper);
+        open(DEFAULT_SAVE_DIR);
+    }
+
+    private static void open(Path directory) {
+        File dir = directory.toFile();
         if (!dir.exists()) {
             boolean created = dir.mkdirs();
-            if (created) logger.info("Created directory: " + SAVE_DIR);
+            if (created) logger.info("Created directory: " + directory);
         }
+        saveDir = directory;
+        catalog = new SavedUserCatalog(directory, mapper);
+        migrateFlatLayout();
+    }
+
+    /**
+     * Points the manager at another save directory, e.g. a test's temporary one.
+     * The catalog is reopened there and the revisions known for loaded users are
+     * dropped, as they belong to the previous directory.
+     *
+     * @param directory the save directory
+     * @return the previous save directory
+     */
+    static synchronized Path useSaveDirectory(Path directory) {
+        Path previous = saveDir;
+        knownRevisions.clear();
+        open(directory);
+        return previous;
     }
 
     private UserMementoManager() {
         throw new IllegalStateException("Memento Manager class");
     }
 
+    /**
+     * Sets the {@link Deflater} level applied to snapshot segments before encryption.
+     * {@link Deflater#NO_COMPRESSION} stores segments uncompressed; the initial level
+     * can be set with the {@code financetrack.compression.level} system property.
+     *
+     * @param level the level, from {@link Deflater#DEFAULT_COMPRESSION} to {@link Deflater#BEST_COMPRESSION}
+     */
+    public static void setCompressionLevel(int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        compressionLevel = level;
+    }
+
     /**
      * Save.
+     * The snapshot is written to a temporary file, forced to disk and then
+     * atomically renamed over the previous one, so a crash during a save
+     * leaves the previous snapshot intact.
      *
      * @param snapshot the snapshot
      * @throws IOException the io exception
      */
     public static void save(UserSnapshot snapshot) throws IOException {
         Objects.requireNonNull(snapshot, "UserSnapshot cannot be null.");
-        String filename = sanitizeFileName(snapshot.name()) + JSON;
-        Path filePath = Path.of(SAVE_DIR, filename);
-
-        String json = mapper.writeValueAsString(snapshot);
+        boolean firstSave = catalog.get(snapshot.name()).isEmpty();
+        catalog.reserveFileId(snapshot.name(), sanitizeFileName(snapshot.name()));
         try {
-            String encrypted = EncryptionUtils.encrypt(json,snapshot.name());
-            Files.writeString(filePath, encrypted);
-            logger.info(() -> "Encrypted and saved snapshot: " + filePath);
+            writeSnapshot(snapshot);
+        } catch (IOException e) {
+            if (firstSave) releaseFileId(snapshot.name());
+            throw e;
+        }
+    }
+
+    private static void writeSnapshot(UserSnapshot snapshot) throws IOException {
+        Path filePath = snapshotPath(snapshot.name());
+        Files.createDirectories(filePath.getParent());
+        Path tempPath = Files.createTempFile(filePath.getParent(), fileId(snapshot.name()) + ".", TEMP);
+
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE);
+             DataOutputStream file = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            file.writeInt(MAGIC);
+            int level = compressionLevel;
+            SegmentCompression compression = level == Deflater.NO_COMPRESSION
+                    ? SegmentCompression.NONE
+                    : SegmentCompression.DEFLATE;
+            file.writeByte(FORMAT_VERSION);
+            file.writeByte(compression.id());
+            SegmentedSnapshotFormat.write(file, snapshot, binaryCodec, compression, level);
+            file.flush();
+            channel.force(true);
         } catch (GeneralSecurityException e) {
+            Files.deleteIfExists(tempPath);
             throw new IOException("Encryption failed", e);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
         }
+        try {
+            locked(snapshot.name(), lock -> {
+                long revision = checkRevision(snapshot.name(), lock);
+                replace(tempPath, filePath);
+                // The new base snapshot already contains every journaled change. Replaying
+                // is idempotent, so a crash before the journal is gone loses nothing.
+                Files.deleteIfExists(journalPath(snapshot.name()));
+                Files.deleteIfExists(legacyPath(snapshot.name()));
+                int transactionCount = snapshot.transactions().values().stream().mapToInt(List::size).sum();
+                catalog.put(new SavedUserEntry(snapshot.name(), fileId(snapshot.name()), Files.size(filePath),
+                        Files.getLastModifiedTime(filePath).toMillis(), transactionCount, FORMAT_VERSION));
+                return writeRevision(snapshot.name(), lock, nextRevision(revision));
+            });
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+        logger.info(() -> "Encrypted and saved snapshot: " + filePath);
+    }
+
+    /**
+     * Appends a journal entry on top of the user's base snapshot.
+     * Each entry is encrypted on its own and written as one line, so a save
+     * costs the size of the change instead of the size of the ledger.
+     *
+     * @param entry the journal entry
+     * @throws IOException the io exception
+     */
+    public static void append(UserJournalEntry entry) throws IOException {
+        Objects.requireNonNull(entry, "UserJournalEntry cannot be null.");
+        catalog.reserveFileId(entry.name(), sanitizeFileName(entry.name()));
+        Path journal = journalPath(entry.name());
+        Files.createDirectories(journal.getParent());
+
+        String json = mapper.writeValueAsString(entry);
+        locked(entry.name(), lock -> {
+            long revision = checkRevision(entry.name(), lock);
+            try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                String encrypted = EncryptionUtils.encrypt(json, entry.name());
+                ByteBuffer line = ByteBuffer.wrap((encrypted + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+                while (line.hasRemaining()) {
+                    channel.write(line);
+                }
+                channel.force(false);
+                long journalSize = channel.size();
+                int delta = entry.addedTransactions().values().stream().mapToInt(List::size).sum()
+                        - entry.removedTransactionIds().size();
+                catalog.update(entry.name(), saved -> new SavedUserEntry(saved.name(), saved.fileId(),
+                        Files.exists(snapshotPath(entry.name())) ? sizeOf(snapshotPath(entry.name())) + journalSize : journalSize,
+                        System.currentTimeMillis(),
+                        saved.transactionCount() < 0 ? -1 : saved.transactionCount() + delta,
+                        saved.formatVersion()));
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Encryption failed", e);
+            }
+            return writeRevision(entry.name(), lock, nextRevision(revision));
+        });
+        logger.info(() -> "Encrypted and appended journal entry: " + journal);
+    }
+
+    /**
+     * Tells whether the next save should rewrite the base snapshot instead of appending.
+     * This happens when there is no base snapshot yet, or when the journal has grown
+     * as big as the snapshot, so that replaying it on load stays cheap.
+     *
+     * @param username the username
+     * @return true if a full snapshot should be written
+     * @throws IOException the io exception
+     */
+    public static boolean shouldCompact(String username) throws IOException {
+        Path snapshotPath = snapshotPath(username);
+        if (!Files.exists(snapshotPath)) return true;
+
+        Path journal = journalPath(username);
+        return Files.exists(journal) && Files.size(journal) >= Files.size(snapshotPath);
     }
 
 
@@ -71,11 +286,209 @@ public class UserMementoManager {
      * @throws IOException the io exception
      */
     public static Optional<UserSnapshot> load(String username) throws IOException {
-        String filename = sanitizeFileName(username) + JSON;
-        Path filePath = Path.of(SAVE_DIR, filename);
-        File file = filePath.toFile();
+        return load(username, false);
+    }
+
+    /**
+     * Load optional, optionally deferring the transaction history.
+     * With {@code lazyTransactions} set, the transactions of a segmented snapshot
+     * are decrypted and parsed only when first accessed; older formats are always
+     * read eagerly.
+     *
+     * @param username         the username
+     * @param lazyTransactions whether the transaction history is loaded on first access
+     * @return the optional
+     * @throws IOException the io exception
+     */
+    public static Optional<UserSnapshot> load(String username, boolean lazyTransactions) throws IOException {
+        if (!Files.exists(snapshotPath(username)) && !Files.exists(legacyPath(username))) {
+            logger.warning(() -> "File not found: " + snapshotPath(username));
+            return Optional.empty();
+        }
+        return locked(username, lock -> {
+            Optional<UserSnapshot> snapshot = read(username, lazyTransactions);
+            if (snapshot.isPresent()) {
+                knownRevisions.put(username, readRevision(lock));
+            }
+            return snapshot;
+        });
+    }
+
+    /**
+     * Reads the user's snapshot in whatever format it was written, with the journal applied.
+     */
+    private static Optional<UserSnapshot> read(String username, boolean lazyTransactions) throws IOException {
+        Path filePath = snapshotPath(username);
+        if (!Files.exists(filePath)) {
+            return loadLegacy(username);
+        }
+
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(filePath))) {
+            DataInputStream header = new DataInputStream(file);
+            if (header.readInt() != MAGIC) {
+                throw new IOException("Not a snapshot file: " + filePath);
+            }
+            byte version = header.readByte();
+            UserSnapshot snapshot = switch (version) {
+                case FORMAT_VERSION -> SegmentedSnapshotFormat.read(header, username, binaryCodec,
+                        SegmentCompression.fromId(header.readByte()), lazyTransactions);
+                case FORMAT_BINARY -> SegmentedSnapshotFormat.read(header, username, binaryCodec,
+                        SegmentCompression.NONE, lazyTransactions);
+                case FORMAT_SEGMENTED_JSON -> SegmentedSnapshotFormat.read(header, username, jsonCodec,
+                        SegmentCompression.NONE, lazyTransactions);
+                case FORMAT_STREAM, FORMAT_UNVERSIONED_KEY -> readStream(file, username, version);
+                default -> throw new IOException("Unsupported snapshot format version " + version + ": " + filePath);
+            };
+            logger.info(() -> "Decrypted and loaded snapshot: " + filePath);
+            return Optional.of(replayJournal(snapshot, username));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Decryption failed", e);
+        }
+    }
+
+    /**
+     * Re-encrypts the user's snapshot and journal with the current key version.
+     * Segmented snapshots are re-encrypted segment by segment without being parsed;
+     * older formats are loaded and saved again. Each file is replaced atomically,
+     * so an interrupted call leaves every file readable and can simply be repeated.
+     * The revision is bumped like for any other write, so a session that loaded
+     * the user before the rotation cannot save its copy over the rotated files.
+     *
+     * @param username the username
+     * @throws IOException the io exception
+     */
+    static void reencrypt(String username) throws IOException {
+        locked(username, lock -> {
+            rewriteEncrypted(username);
+            if (!Files.exists(snapshotPath(username))) return null;
+            return writeRevision(username, lock, nextRevision(readRevision(lock)));
+        });
+    }
+
+    private static void rewriteEncrypted(String username) throws IOException {
+        Path filePath = snapshotPath(username);
+        if (!Files.exists(filePath)) {
+            // Legacy text snapshot: migrate it, which also folds in the journal
+            Optional<UserSnapshot> legacy = loadLegacy(username);
+            if (legacy.isPresent()) save(legacy.get());
+            return;
+        }
+
+        try {
+            int keyVersion = KeyProvider.getInstance().getCurrentVersion();
+            byte version;
+            Path rewritten = null;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(filePath)))) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a snapshot file: " + filePath);
+                }
+                version = in.readByte();
+                if (version == FORMAT_VERSION || version == FORMAT_BINARY || version == FORMAT_SEGMENTED_JSON) {
+                    Path tempPath = Files.createTempFile(filePath.getParent(), fileId(username) + ".", TEMP);
+                    try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE);
+                         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+                        out.writeInt(MAGIC);
+                        out.writeByte(version);
+                        if (version == FORMAT_VERSION) {
+                            out.writeByte(in.readByte());
+                        }
+                        SegmentedSnapshotFormat.reencrypt(in, out, username, keyVersion);
+                        out.flush();
+                        channel.force(true);
+                    } catch (IOException | GeneralSecurityException e) {
+                        Files.deleteIfExists(tempPath);
+                        throw e;
+                    }
+                    rewritten = tempPath;
+                }
+            }
+            if (rewritten != null) {
+                replace(rewritten, filePath);
+            }
+            if (version == FORMAT_STREAM || version == FORMAT_UNVERSIONED_KEY) {
+                save(load(username).orElseThrow());
+                return;
+            }
+            reencryptJournal(username);
+            long size = Files.size(filePath) + (Files.exists(journalPath(username)) ? Files.size(journalPath(username)) : 0);
+            long modified = Files.getLastModifiedTime(filePath).toMillis();
+            catalog.update(username, saved -> new SavedUserEntry(saved.name(), saved.fileId(), size, modified,
+                    saved.transactionCount(), saved.formatVersion()));
+            logger.info(() -> "Re-encrypted files of " + username + " with key version " + keyVersion);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Re-encryption failed for " + username, e);
+        }
+    }
+
+    /**
+     * Rewrites the journal with every readable entry encrypted under the current key.
+     */
+    private static void reencryptJournal(String username) throws IOException, GeneralSecurityException {
+        Path journal = journalPath(username);
+        if (!Files.exists(journal)) return;
+
+        StringBuilder content = new StringBuilder();
+        for (String line : Files.readAllLines(journal, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) continue;
+            String decrypted;
+            try {
+                decrypted = EncryptionUtils.decrypt(line.strip(), username);
+            } catch (GeneralSecurityException | IllegalArgumentException e) {
+                // Same rule as replay: an unreadable entry ends the journal
+                break;
+            }
+            content.append(EncryptionUtils.encrypt(decrypted, username)).append(System.lineSeparator());
+        }
+        Path tempPath = Files.createTempFile(journal.getParent(), fileId(username) + ".", TEMP);
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+            ByteBuffer bytes = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+        replace(tempPath, journal);
+    }
+
+    /**
+     * Writes the user's current state as indented, unencrypted JSON for debugging.
+     * The export is never read back as a snapshot.
+     *
+     * @param username the username
+     * @param target   the file to write
+     * @return true if the user exists and was exported
+     * @throws IOException the io exception
+     */
+    public static boolean exportJson(String username, Path target) throws IOException {
+        Optional<UserSnapshot> snapshot = load(username);
+        if (snapshot.isEmpty()) return false;
+
+        mapper.writer().with(SerializationFeature.INDENT_OUTPUT).writeValue(target.toFile(), snapshot.get());
+        logger.info(() -> "Exported debug JSON for " + username + " to: " + target);
+        return true;
+    }
+
+    /**
+     * Reads a snapshot written as a single encrypted stream.
+     */
+    private static UserSnapshot readStream(InputStream file, String username, byte version)
+            throws IOException, GeneralSecurityException {
+        try (InputStream decrypted = version == FORMAT_STREAM
+                ? EncryptionUtils.decryptingStream(file, username)
+                : EncryptionUtils.decryptingStream(file, username, KeyProvider.LEGACY_VERSION)) {
+            return mapper.readValue(decrypted, UserSnapshot.class);
+        }
+    }
 
-        if (!file.exists()) {
+    /**
+     * Loads a snapshot written in the former Base64 text format.
+     */
+    private static Optional<UserSnapshot> loadLegacy(String username) throws IOException {
+        Path filePath = legacyPath(username);
+        if (!Files.exists(filePath)) {
             logger.warning(() -> "File not found: " + filePath);
             return Optional.empty();
         }
@@ -83,27 +496,66 @@ public class UserMementoManager {
         try {
             String encrypted = Files.readString(filePath);
             String decrypted = EncryptionUtils.decrypt(encrypted,username);
-            logger.info(() -> "Decrypted and loaded snapshot: " + filePath);
-            return Optional.of(mapper.readValue(decrypted, UserSnapshot.class));
+            logger.info(() -> "Decrypted and loaded legacy snapshot: " + filePath);
+            return Optional.of(replayJournal(mapper.readValue(decrypted, UserSnapshot.class), username));
         } catch (GeneralSecurityException e) {
             throw new IOException("Decryption failed", e);
         }
     }
 
+    /**
+     * Applies every journal entry saved after the base snapshot, in order.
+     * A trailing entry that cannot be decrypted is the remains of an interrupted
+     * append: it is skipped together with anything after it.
+     */
+    private static UserSnapshot replayJournal(UserSnapshot snapshot, String username) throws IOException {
+        Path journal = journalPath(username);
+        if (!Files.exists(journal)) return snapshot;
+
+        UserSnapshot current = snapshot;
+        int replayed = 0;
+        for (String line : Files.readAllLines(journal, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) continue;
+            try {
+                String decrypted = EncryptionUtils.decrypt(line.strip(), username);
+                current = UserMapper.applyJournalEntry(current, mapper.readValue(decrypted, UserJournalEntry.class));
+                replayed++;
+            } catch (GeneralSecurityException | IllegalArgumentException e) {
+                logger.warning(() -> "Discarding unreadable journal tail in: " + journal);
+                break;
+            }
+        }
+        int count = replayed;
+        logger.info(() -> "Replayed " + count + " journal entries from: " + journal);
+        return current;
+    }
+
     /**
      * List saved users list.
      *
-     * @return the list
+     * @return the exact usernames, sorted
      */
     public static List<String> listSavedUsers() {
-        File dir = new File(SAVE_DIR);
-        String[] files = dir.list((d, name) -> name.endsWith(JSON));
-        if (files == null) return List.of();
+        return catalog.list().stream().map(SavedUserEntry::name).toList();
+    }
+
+    /**
+     * Lists the catalog entries of the saved users, without reading their files.
+     *
+     * @return the entries, sorted by username
+     */
+    public static List<SavedUserEntry> listSavedUserEntries() {
+        return catalog.list();
+    }
 
-        return Arrays.stream(files)
-                .map(name -> name.replace(JSON, ""))
-                .sorted()
-                .toList();
+    /**
+     * Gets the catalog entry of a saved user.
+     *
+     * @param username the username
+     * @return the entry, empty if the user is not in the catalog
+     */
+    public static Optional<SavedUserEntry> getSavedUserEntry(String username) {
+        return catalog.get(username);
     }
 
     /**
@@ -113,9 +565,31 @@ public class UserMementoManager {
      * @return the boolean
      */
     public static boolean delete(String username) {
-        String filename = sanitizeFileName(username) + JSON;
-        File file = new File(SAVE_DIR, filename);
-        boolean deleted = !(!file.exists() || !file.delete());
+        String filename = fileId(username) + SNAPSHOT;
+        boolean deleted;
+        try {
+            deleted = locked(username, lock -> {
+                File file = snapshotPath(username).toFile();
+                File legacy = legacyPath(username).toFile();
+                boolean removed = !(!file.exists() || !file.delete());
+                removed |= legacy.exists() && legacy.delete();
+                File journal = journalPath(username).toFile();
+                if (journal.exists() && !journal.delete()) {
+                    logger.warning(() -> "Failed to delete journal: " + journal.getName());
+                }
+                // Before the catalog entry goes, as it holds the file id of the lock file
+                retireLock(username, lock);
+                try {
+                    catalog.remove(username);
+                } catch (IOException e) {
+                    logger.warning(() -> "Failed to update catalog after deleting: " + username);
+                }
+                return removed;
+            });
+        } catch (IOException e) {
+            logger.warning(() -> "Failed to lock " + username + " for deletion: " + e.getMessage());
+            return false;
+        }
         if (deleted) {
             logger.info(()->"Deleted snapshot: " + filename);
         } else {
@@ -124,6 +598,268 @@ public class UserMementoManager {
         return deleted;
     }
 
+    /**
+     * Removes the lock file of a deleted user while still holding it.
+     * It is marked retired first, so a process already waiting on it locks the
+     * file that replaces it instead. Revisions of a recreated user start from the
+     * clock (see {@link #nextRevision}), so sessions still holding the deleted
+     * user never mistake the new revision for theirs. If any of the user's files
+     * could not be removed, the lock file stays with a new revision.
+     */
+    private static void retireLock(String username, FileChannel lock) throws IOException {
+        long revision = readRevision(lock);
+        if (Files.exists(snapshotPath(username)) || Files.exists(journalPath(username))
+                || Files.exists(legacyPath(username))) {
+            writeRevision(username, lock, nextRevision(revision));
+            return;
+        }
+        writeRevision(username, lock, RETIRED);
+        try {
+            Files.delete(lockPath(username));
+            knownRevisions.remove(username);
+        } catch (IOException e) {
+            logger.warning(() -> "Could not remove lock file of " + username + ": " + e.getMessage());
+            writeRevision(username, lock, nextRevision(revision));
+        }
+    }
+
+    /**
+     * Gets the revision of the user's files, which grows with every write to them.
+     *
+     * @param username the username
+     * @return the revision, 0 if the user was never saved
+     * @throws IOException the io exception
+     */
+    public static long revision(String username) throws IOException {
+        Path lockPath = lockPath(username);
+        if (!Files.exists(lockPath)) return 0;
+
+        try (FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.READ)) {
+            return readRevision(channel);
+        } catch (NoSuchFileException e) {
+            // Deleted in between
+            return 0;
+        }
+    }
+
+    /**
+     * Checks, without locking, that nobody else wrote the user since this process
+     * last loaded or saved it. Saves check again under the lock; this lets callers
+     * report a conflict before handing a save to a background writer.
+     *
+     * @param username the username
+     * @throws ConcurrentSaveException if another session saved the user in between
+     * @throws IOException             the io exception
+     */
+    public static void verifyRevision(String username) throws IOException {
+        Long known = knownRevisions.get(username);
+        if (known != null && known != revision(username)) {
+            throw new ConcurrentSaveException("User '" + username + "' was saved by another session, reload it first");
+        }
+    }
+
+    /**
+     * Runs an action holding the user's lock, within this process and across processes.
+     */
+    private static <T> T locked(String username, LockedAction<T> action) throws IOException {
+        UserLock lock = userLocks.computeIfAbsent(username, k -> new UserLock());
+        lock.lock();
+        try {
+            if (lock.channel != null) {
+                return action.run(lock.channel);
+            }
+            Path lockPath = lockPath(username);
+            while (true) {
+                Files.createDirectories(lockPath.getParent());
+                try (FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+                     FileLock ignored = channel.lock()) {
+                    if (readRevision(channel) == RETIRED) {
+                        // The user was deleted while we waited and the file is gone: lock its replacement
+                        continue;
+                    }
+                    lock.channel = channel;
+                    return action.run(channel);
+                } finally {
+                    lock.channel = null;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long readRevision(FileChannel lock) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        while (buffer.hasRemaining()) {
+            if (lock.read(buffer, buffer.position()) < 0) return 0;
+        }
+        return buffer.getLong(0);
+    }
+
+    /**
+     * Fails unless the revision on disk is the one this process last saw.
+     */
+    private static long checkRevision(String username, FileChannel lock) throws IOException {
+        long revision = readRevision(lock);
+        Long known = knownRevisions.get(username);
+        if (known != null && known != revision) {
+            throw new ConcurrentSaveException("User '" + username + "' was saved by another session, reload it first");
+        }
+        return revision;
+    }
+
+    /**
+     * Gets the revision following the given one. A user without a lock file
+     * starts from the current time in microseconds rather than from 1, so a user
+     * deleted and saved again never reuses a revision of its previous life.
+     */
+    private static long nextRevision(long revision) {
+        if (revision > 0) return revision + 1;
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000 + now.getNano() / 1_000;
+    }
+
+    private static long writeRevision(String username, FileChannel lock, long revision) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, revision);
+        while (buffer.hasRemaining()) {
+            lock.write(buffer, buffer.position());
+        }
+        lock.force(false);
+        knownRevisions.put(username, revision);
+        return revision;
+    }
+
+    /**
+     * Moves a fully written file over its target, atomically where the file system allows it.
+     */
+    static void replace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            logger.warning(() -> "Atomic move not supported, replacing: " + target);
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Gets the directory holding the saved users.
+     *
+     * @return the directory
+     */
+    static Path saveDirectory() {
+        return saveDir;
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Drops the file id reserved for a user whose first save failed, unless some
+     * of its files made it to disk after all.
+     */
+    private static void releaseFileId(String username) {
+        try {
+            if (!Files.exists(snapshotPath(username)) && !Files.exists(journalPath(username))
+                    && !Files.exists(legacyPath(username))) {
+                catalog.remove(username);
+            }
+        } catch (IOException e) {
+            logger.warning(() -> "Could not release the file id of " + username + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the base file name of a user: the catalog's one for saved users,
+     * a free name derived from the username otherwise.
+     */
+    private static String fileId(String username) {
+        return catalog.fileIdFor(username, sanitizeFileName(username));
+    }
+
+    /**
+     * Gets the path of the user's snapshot file.
+     *
+     * @param username the username
+     * @return the path, whether or not the file exists
+     */
+    static Path snapshotPath(String username) {
+        return userFile(username, SNAPSHOT);
+    }
+
+    private static Path legacyPath(String username) {
+        return userFile(username, JSON);
+    }
+
+    private static Path journalPath(String username) {
+        return userFile(username, JOURNAL);
+    }
+
+    /**
+     * Gets the path of the user's lock file, which also holds its revision.
+     *
+     * @param username the username
+     * @return the path, whether or not the file exists
+     */
+    static Path lockPath(String username) {
+        return userFile(username, LOCK);
+    }
+
+    /**
+     * Resolves a file of the user inside its shard directory.
+     */
+    private static Path userFile(String username, String extension) {
+        String fileId = fileId(username);
+        return shardDirectory(fileId).resolve(fileId + extension);
+    }
+
+    /**
+     * Moves the user files left in the flat layout of earlier versions into their
+     * shard directories. Runs once when the class is loaded; a file another process
+     * is moving at the same time, or that already has a copy in its shard, is left alone.
+     */
+    static void migrateFlatLayout() {
+        List<Path> flatFiles;
+        try (Stream<Path> files = Files.list(saveDir)) {
+            flatFiles = files.filter(Files::isRegularFile)
+                    .filter(path -> Stream.of(SNAPSHOT, JOURNAL, JSON).anyMatch(path.getFileName().toString()::endsWith))
+                    .toList();
+        } catch (IOException e) {
+            logger.warning(() -> "Could not scan " + saveDir + " for files to move into shards: " + e.getMessage());
+            return;
+        }
+        for (Path flat : flatFiles) {
+            String fileName = flat.getFileName().toString();
+            Path sharded = shardDirectory(fileName.substring(0, fileName.lastIndexOf('.'))).resolve(fileName);
+            try {
+                if (Files.exists(sharded)) continue;
+                Files.createDirectories(sharded.getParent());
+                replace(flat, sharded);
+                logger.info(() -> "Moved " + flat + " to " + sharded);
+            } catch (NoSuchFileException e) {
+                // Moved by another process in the meantime
+            } catch (IOException e) {
+                logger.warning(() -> "Could not move " + flat + " into its shard: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Gets the shard directory of a file id: two hex digits of its hash.
+     *
+     * @param fileId the file id
+     * @return the directory
+     */
+    static Path shardDirectory(String fileId) {
+        int shard = Math.floorMod(fileId.hashCode(), SHARDS);
+        return saveDir.resolve(String.format("%02x", shard));
+    }
+
     private static String sanitizeFileName(String name) {
         return name.replaceAll("[^a-zA-Z0-9_\\-]", "_"); // avoid bad file names
     }
@@ -4,9 +4,15 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
 import it.finance.sb.annotation.Sanitize;
+import it.finance.sb.utility.Money;
 
 import java.util.Objects;
 
+/**
+ * The type Account.
+ * In fixed-point money mode the balance is always a whole number of minor units,
+ * and updates are exact integer additions of them, see {@link Money}.
+ */
 @JsonTypeName("Account")
 public class Account implements AccountInterface {
     private static int idCounter = 0;
@@ -28,7 +34,7 @@ public class Account implements AccountInterface {
                    @JsonProperty("type") AccounType type) {
         this.accountId = ++idCounter;
         this.name = name;
-        this.balance = balance;
+        this.balance = Money.normalize(balance);
         this.type = type;
     }
 
@@ -36,6 +42,32 @@ public class Account implements AccountInterface {
         this.accountId = ++idCounter;
     }
 
+    /**
+     * Restores a persisted account keeping its id.
+     *
+     * @param accountId the persisted account id
+     * @param name      the name
+     * @param balance   the balance
+     * @param type      the type
+     */
+    public Account(int accountId, String name, double balance, AccounType type) {
+        this.accountId = accountId;
+        this.name = name;
+        this.balance = Money.normalize(balance);
+        this.type = type;
+        reserveIdsUpTo(accountId);
+    }
+
+    /**
+     * Makes sure ids handed out from now on are greater than the given one,
+     * so accounts created after a load never share an id with a restored one.
+     *
+     * @param usedId the highest id already in use
+     */
+    public static synchronized void reserveIdsUpTo(int usedId) {
+        idCounter = Math.max(idCounter, usedId);
+    }
+
     @Override
     public String getName() {
         return name;
@@ -63,7 +95,7 @@ public class Account implements AccountInterface {
 
     @Override
     public void update(double amount) {
-        double result = this.balance + amount;
+        double result = Money.FIXED_POINT ? Money.add(balance, amount) : balance + amount;
         if (result < 0) {
             throw new IllegalArgumentException("Insufficient balance");
         }
@@ -72,7 +104,7 @@ public class Account implements AccountInterface {
 
     @Override
     public void setDeposit(double deposit) {
-        this.balance = deposit;
+        this.balance = Money.normalize(deposit);
     }
 
     @Override
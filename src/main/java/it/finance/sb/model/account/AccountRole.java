@@ -0,0 +1,53 @@
+package it.finance.sb.model.account;
+
+/**
+ * The part an account plays in a transaction.
+ */
+public enum AccountRole {
+    /**
+     * Destination of an income.
+     */
+    INCOME(1),
+    /**
+     * Source of an expense.
+     */
+    EXPENSE(-1),
+    /**
+     * Destination of a movement between accounts.
+     */
+    MOVEMENT_IN(1),
+    /**
+     * Source of a movement between accounts.
+     */
+    MOVEMENT_OUT(-1),
+    /**
+     * Both ends of a movement from an account to itself, which leaves the balance unchanged.
+     */
+    MOVEMENT_WITHIN(0);
+
+    private final int sign;
+
+    AccountRole(int sign) {
+        this.sign = sign;
+    }
+
+    /**
+     * Gets the change the transaction makes to the account balance.
+     *
+     * @param amount the transaction amount
+     * @return the signed amount
+     */
+    public double balanceChange(double amount) {
+        return sign * amount;
+    }
+
+    /**
+     * Gets the change the transaction makes to the account balance, in minor units.
+     *
+     * @param minor the transaction amount in minor units
+     * @return the signed amount in minor units
+     */
+    public long balanceChange(long minor) {
+        return sign * minor;
+    }
+}
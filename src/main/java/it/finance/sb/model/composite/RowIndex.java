@@ -0,0 +1,109 @@
+package it.finance.sb.model.composite;
+
+/**
+ * Row of every transaction id in a {@link TransactionColumns} store, as an open-addressing
+ * table of primitive ints: about 16 bytes per row instead of two boxed integers and a map entry.
+ * Lookups, insertions and removals take constant time; removals shift the following entries
+ * back rather than leaving markers, so the table never needs cleaning up.
+ */
+final class RowIndex {
+
+    private static final int NONE = -1;
+    private static final int FREE = 0;
+
+    private int[] keys;
+    /**
+     * Row plus one, so that a zeroed slot is free.
+     */
+    private int[] rows;
+    private int count;
+    private int mask;
+
+    /**
+     * Instantiates a new row index.
+     *
+     * @param expected the number of rows to make room for
+     */
+    RowIndex(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+        keys = new int[capacity];
+        rows = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Gets the row of an id.
+     *
+     * @param id the transaction id
+     * @return the row, or -1 if the id is not indexed
+     */
+    int get(int id) {
+        for (int slot = home(id); rows[slot] != FREE; slot = (slot + 1) & mask) {
+            if (keys[slot] == id) return rows[slot] - 1;
+        }
+        return NONE;
+    }
+
+    /**
+     * Sets the row of an id.
+     *
+     * @param id  the transaction id
+     * @param row the row
+     */
+    void put(int id, int row) {
+        if ((count + 1) * 2 > keys.length) grow();
+        int slot = home(id);
+        while (rows[slot] != FREE) {
+            if (keys[slot] == id) {
+                rows[slot] = row + 1;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = id;
+        rows[slot] = row + 1;
+        count++;
+    }
+
+    /**
+     * Drops an id.
+     *
+     * @param id the transaction id
+     */
+    void remove(int id) {
+        int gap = home(id);
+        while (rows[gap] != FREE && keys[gap] != id) {
+            gap = (gap + 1) & mask;
+        }
+        if (rows[gap] == FREE) return;
+
+        // Move back every following entry whose probe sequence passes the gap
+        for (int slot = (gap + 1) & mask; rows[slot] != FREE; slot = (slot + 1) & mask) {
+            int home = home(keys[slot]);
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                keys[gap] = keys[slot];
+                rows[gap] = rows[slot];
+                gap = slot;
+            }
+        }
+        rows[gap] = FREE;
+        count--;
+    }
+
+    private int home(int id) {
+        int mixed = id * 0x9E3779B9;
+        return (mixed ^ (mixed >>> 16)) & mask;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldRows = rows;
+        keys = new int[oldKeys.length * 2];
+        rows = new int[oldRows.length * 2];
+        mask = keys.length - 1;
+        count = 0;
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldRows[slot] != FREE) put(oldKeys[slot], oldRows[slot] - 1);
+        }
+    }
+}
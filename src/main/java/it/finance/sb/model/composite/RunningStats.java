@@ -0,0 +1,118 @@
+package it.finance.sb.model.composite;
+
+import it.finance.sb.utility.Money;
+
+import java.util.function.Supplier;
+import java.util.stream.DoubleStream;
+
+/**
+ * Count, sum, minimum and maximum of a changing group of amounts, updated in constant time.
+ * Removing the current minimum or maximum cannot be undone incrementally: the extremes are
+ * then marked stale and recomputed from the remaining amounts on the next read.
+ * In fixed-point mode the sum is kept as a {@code long} of minor units, so it is exact.
+ */
+final class RunningStats {
+
+    private final boolean fixedPoint;
+    private long count;
+    private double sum;
+    private long sumMinor;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    private boolean extremesStale;
+
+    RunningStats() {
+        this(false);
+    }
+
+    /**
+     * Instantiates new running stats.
+     *
+     * @param fixedPoint whether to sum in minor units, see {@link Money}
+     */
+    RunningStats(boolean fixedPoint) {
+        this.fixedPoint = fixedPoint;
+    }
+
+    private RunningStats(RunningStats source) {
+        fixedPoint = source.fixedPoint;
+        count = source.count;
+        sum = source.sum;
+        sumMinor = source.sumMinor;
+        min = source.min;
+        max = source.max;
+        extremesStale = source.extremesStale;
+    }
+
+    void add(double amount) {
+        count++;
+        if (fixedPoint) {
+            sumMinor += Money.toMinor(amount);
+        } else {
+            sum += amount;
+        }
+        if (extremesStale) return;
+        if (count == 1) {
+            min = amount;
+            max = amount;
+        } else {
+            min = Math.min(min, amount);
+            max = Math.max(max, amount);
+        }
+    }
+
+    void remove(double amount) {
+        count--;
+        if (count <= 0) {
+            clear();
+            return;
+        }
+        if (fixedPoint) {
+            sumMinor -= Money.toMinor(amount);
+        } else {
+            sum -= amount;
+        }
+        if (amount <= min || amount >= max) extremesStale = true;
+    }
+
+    void replace(double before, double after) {
+        remove(before);
+        add(after);
+    }
+
+    void clear() {
+        count = 0;
+        sum = 0;
+        sumMinor = 0;
+        min = Double.NaN;
+        max = Double.NaN;
+        extremesStale = false;
+    }
+
+    long count() {
+        return count;
+    }
+
+    double sum() {
+        return fixedPoint ? Money.toMajor(sumMinor) : sum;
+    }
+
+    /**
+     * Gets the figures, recomputing stale extremes first.
+     *
+     * @param amounts streams the amounts currently in the group
+     * @return the figures
+     */
+    TransactionStats get(Supplier<DoubleStream> amounts) {
+        if (extremesStale) {
+            min = amounts.get().min().orElse(Double.NaN);
+            max = amounts.get().max().orElse(Double.NaN);
+            extremesStale = false;
+        }
+        return count == 0 ? TransactionStats.EMPTY : new TransactionStats(count, sum(), min, max);
+    }
+
+    RunningStats copy() {
+        return new RunningStats(this);
+    }
+}
@@ -0,0 +1,498 @@
+package it.finance.sb.model.composite;
+
+import it.finance.sb.model.account.AccountInterface;
+import it.finance.sb.model.transaction.AbstractTransaction;
+import it.finance.sb.model.transaction.ExpenseTransaction;
+import it.finance.sb.model.transaction.IncomeTransaction;
+import it.finance.sb.model.transaction.MovementTransaction;
+import it.finance.sb.model.transaction.TransactionBuilder;
+import it.finance.sb.model.transaction.TransactionType;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Columnar (struct-of-arrays) store of transactions, used as a node of a {@link TransactionList}.
+ * Every field lives in a primitive column: ids, amounts in cents, dates in epoch milliseconds,
+ * category dictionary ids, account ids and a type byte; the reason is the only object column.
+ * A row takes about 40 bytes instead of a transaction object with its date, and count, total,
+ * minimum and maximum of the amount column are maintained as rows change.
+ * <p>
+ * Rows are handed out as views: transactions rebuilt from the columns on every access,
+ * linked to the same account objects. Changing a view does not change its row; use
+ * {@link #modifyById} for that. Amounts are kept rounded to the cent.
+ * <p>
+ * Rows are located by id through a {@link RowIndex} built on first use, so finding, modifying
+ * or removing one takes constant time. A removed row is only marked, keeping the positions of
+ * the others valid; marked rows are compacted away the next time rows are read by position.
+ */
+public class TransactionColumns implements CompositeTransaction {
+
+    private static final int NONE = -1;
+    private static final long NO_DATE = Long.MIN_VALUE;
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final TransactionType[] TYPES = TransactionType.values();
+    private static final byte REMOVED = -1;
+
+    private int size;
+    private int[] ids;
+    private long[] amounts;
+    private long[] dates;
+    private int[] categories;
+    private int[] fromAccounts;
+    private int[] toAccounts;
+    private byte[] types;
+    private String[] reasons;
+    private final List<String> categoryNames;
+    private final Map<String, Integer> categoryIds;
+    private final Map<Integer, AccountInterface> accounts;
+    /**
+     * Figures of the amount column, in cents.
+     */
+    private final RunningStats stats;
+    /**
+     * Row of every transaction, by id; null until first needed.
+     */
+    private RowIndex rowsById;
+    /**
+     * Rows removed but not compacted yet, marked with the {@link #REMOVED} type.
+     */
+    private int removedRows;
+    /**
+     * Number of changes to the rows, for fail-fast traversals.
+     */
+    private int modCount;
+    /**
+     * Whether a snapshot still reads the columns below {@link #size}.
+     */
+    private boolean shared;
+    /**
+     * Whether rows may be appended in place; snapshots copy their columns before any change.
+     */
+    private boolean owner = true;
+
+    public TransactionColumns() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Instantiates a new Transaction columns store.
+     *
+     * @param capacity the initial number of rows
+     */
+    public TransactionColumns(int capacity) {
+        int initial = Math.max(capacity, 1);
+        ids = new int[initial];
+        amounts = new long[initial];
+        dates = new long[initial];
+        categories = new int[initial];
+        fromAccounts = new int[initial];
+        toAccounts = new int[initial];
+        types = new byte[initial];
+        reasons = new String[initial];
+        categoryNames = new ArrayList<>();
+        categoryIds = new HashMap<>();
+        accounts = new HashMap<>();
+        stats = new RunningStats();
+    }
+
+    private TransactionColumns(TransactionColumns source) {
+        size = source.size;
+        ids = source.ids;
+        amounts = source.amounts;
+        dates = source.dates;
+        categories = source.categories;
+        fromAccounts = source.fromAccounts;
+        toAccounts = source.toAccounts;
+        types = source.types;
+        reasons = source.reasons;
+        categoryNames = new ArrayList<>(source.categoryNames);
+        categoryIds = new HashMap<>(source.categoryIds);
+        accounts = new HashMap<>(source.accounts);
+        stats = source.stats.copy();
+        shared = true;
+        owner = false;
+    }
+
+    @Override
+    public void displayTransaction() {
+        rows().forEach(CompositeTransaction::displayTransaction);
+    }
+
+    @Override
+    public double getTotal() {
+        return totalCents() / 100.0;
+    }
+
+    /**
+     * Gets the sum of the amount column.
+     *
+     * @return the total in cents
+     */
+    public synchronized long totalCents() {
+        return Math.round(stats.sum());
+    }
+
+    /**
+     * Gets the count, sum, minimum and maximum of the amounts.
+     *
+     * @return the figures
+     */
+    public synchronized TransactionStats getStats() {
+        compact();
+        TransactionStats cents = stats.get(() -> Arrays.stream(amounts, 0, size).asDoubleStream());
+        if (cents.count() == 0) return TransactionStats.EMPTY;
+        return new TransactionStats(cents.count(), cents.sum() / 100.0, cents.min() / 100.0, cents.max() / 100.0);
+    }
+
+    /**
+     * Gets the number of rows.
+     *
+     * @return the size
+     */
+    public synchronized int size() {
+        return size - removedRows;
+    }
+
+    /**
+     * Tells whether a node can be stored as a row: only the concrete transaction types can.
+     *
+     * @param transaction the node
+     * @return true if supported
+     */
+    public static boolean supports(CompositeTransaction transaction) {
+        return transaction instanceof IncomeTransaction
+                || transaction instanceof ExpenseTransaction
+                || transaction instanceof MovementTransaction;
+    }
+
+    /**
+     * Appends a transaction as a new row.
+     *
+     * @param transaction the transaction
+     */
+    public synchronized void add(AbstractTransaction transaction) {
+        if (!owner) unshare();
+        ensureCapacity(size + 1);
+        write(size, transaction);
+        stats.add(amounts[size]);
+        if (rowsById != null) rowsById.put(ids[size], size);
+        size++;
+        modCount++;
+    }
+
+    /**
+     * Inserts transactions ahead of the existing rows, e.g. history loaded after newer rows were added.
+     *
+     * @param transactions the transactions, in order
+     */
+    public synchronized void prepend(List<? extends AbstractTransaction> transactions) {
+        int count = transactions.size();
+        if (count == 0) return;
+        compact();
+
+        // New columns, so a snapshot keeps reading the old ones
+        int capacity = Math.max(size + count, DEFAULT_CAPACITY);
+        ids = shift(ids, new int[capacity], count);
+        amounts = shift(amounts, new long[capacity], count);
+        dates = shift(dates, new long[capacity], count);
+        categories = shift(categories, new int[capacity], count);
+        fromAccounts = shift(fromAccounts, new int[capacity], count);
+        toAccounts = shift(toAccounts, new int[capacity], count);
+        types = shift(types, new byte[capacity], count);
+        reasons = shift(reasons, new String[capacity], count);
+        shared = false;
+        owner = true;
+        for (int i = 0; i < count; i++) {
+            write(i, transactions.get(i));
+            stats.add(amounts[i]);
+        }
+        size += count;
+        rowsById = null;
+        modCount++;
+    }
+
+    /**
+     * Gets a view of a row.
+     *
+     * @param row the row index
+     * @return the transaction rebuilt from the row
+     */
+    public synchronized AbstractTransaction get(int row) {
+        compact();
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of " + size);
+        }
+        return view(row);
+    }
+
+    /**
+     * Finds the row of a transaction.
+     *
+     * @param transactionId the transaction id
+     * @return a view of the row, or null if there is none
+     */
+    public synchronized AbstractTransaction findById(int transactionId) {
+        int row = indexOf(transactionId);
+        return row < 0 ? null : view(row);
+    }
+
+    /**
+     * Gets the rows as a read-only list of views, for the composite iterator.
+     *
+     * @return the rows
+     */
+    public List<CompositeTransaction> rows() {
+        return new AbstractList<>() {
+            @Override
+            public CompositeTransaction get(int index) {
+                return TransactionColumns.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return TransactionColumns.this.size();
+            }
+        };
+    }
+
+    /**
+     * Gets a sized, splittable traversal of views over the live rows. Taking one copies
+     * no column, now or on the next change; it is fail-fast instead, throwing
+     * {@link ConcurrentModificationException} once the rows change.
+     *
+     * @return the spliterator
+     */
+    public synchronized Spliterator<AbstractTransaction> spliterator() {
+        compact();
+        return new LiveRows(size, modCount).spliterator();
+    }
+
+    /**
+     * Removes the row of a transaction, keeping the order of the others.
+     * The row is marked and compacted away by the next read by position.
+     *
+     * @param transactionId the transaction id
+     * @return true if the row existed
+     */
+    public synchronized boolean removeById(int transactionId) {
+        int row = indexOf(transactionId);
+        if (row < 0) return false;
+
+        unshare();
+        stats.remove(amounts[row]);
+        types[row] = REMOVED;
+        reasons[row] = null;
+        rowsById.remove(transactionId);
+        removedRows++;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Applies a change to the row of a transaction: the modifier gets a view, which is written back.
+     *
+     * @param transactionId the transaction id
+     * @param modifier      changes the view
+     * @return true if the row existed
+     */
+    public synchronized boolean modifyById(int transactionId, Consumer<AbstractTransaction> modifier) {
+        int row = indexOf(transactionId);
+        if (row < 0) return false;
+
+        AbstractTransaction view = view(row);
+        modifier.accept(view);
+        unshare();
+        long before = amounts[row];
+        write(row, view);
+        stats.replace(before, amounts[row]);
+        modCount++;
+        if (ids[row] != transactionId) {
+            rowsById.remove(transactionId);
+            rowsById.put(ids[row], row);
+        }
+        return true;
+    }
+
+    /**
+     * Takes a point-in-time copy in time proportional to the categories and accounts, not the rows.
+     * The columns are shared: appending to this store does not disturb the snapshot, and the
+     * first removal or modification copies them.
+     *
+     * @return the snapshot
+     */
+    public synchronized TransactionColumns snapshot() {
+        compact();
+        shared = true;
+        return new TransactionColumns(this);
+    }
+
+    private int indexOf(int transactionId) {
+        if (rowsById == null) {
+            rowsById = new RowIndex(size);
+            // Backwards, so the first of rows sharing an id wins
+            for (int row = size - 1; row >= 0; row--) {
+                if (types[row] != REMOVED) rowsById.put(ids[row], row);
+            }
+        }
+        return rowsById.get(transactionId);
+    }
+
+    /**
+     * Drops the rows marked as removed, moving the rows after them.
+     */
+    private void compact() {
+        if (removedRows == 0) return;
+
+        // Marked rows only exist in columns of this store's own, see removeById
+        int live = 0;
+        for (int row = 0; row < size; row++) {
+            if (types[row] == REMOVED) continue;
+            if (row != live) {
+                ids[live] = ids[row];
+                amounts[live] = amounts[row];
+                dates[live] = dates[row];
+                categories[live] = categories[row];
+                fromAccounts[live] = fromAccounts[row];
+                toAccounts[live] = toAccounts[row];
+                types[live] = types[row];
+                reasons[live] = reasons[row];
+                if (rowsById != null) rowsById.put(ids[live], live);
+            }
+            live++;
+        }
+        Arrays.fill(reasons, live, size, null);
+        size = live;
+        removedRows = 0;
+        modCount++;
+    }
+
+    private AbstractTransaction view(int row) {
+        int category = categories[row];
+        return new TransactionBuilder()
+                .transactionId(ids[row])
+                .type(TYPES[types[row]])
+                .amount(amounts[row] / 100.0)
+                .category(category == NONE ? null : categoryNames.get(category))
+                .reason(reasons[row])
+                .date(dates[row] == NO_DATE ? null : new Date(dates[row]))
+                .from(accounts.get(fromAccounts[row]))
+                .to(accounts.get(toAccounts[row]))
+                .build();
+    }
+
+    private void write(int row, AbstractTransaction transaction) {
+        ids[row] = transaction.getTransactionId();
+        amounts[row] = Math.round(transaction.getAmount() * 100);
+        dates[row] = transaction.getDate() == null ? NO_DATE : transaction.getDate().getTime();
+        categories[row] = categoryId(transaction.getCategory());
+        types[row] = (byte) transaction.getType().ordinal();
+        reasons[row] = transaction.getReason();
+        AccountInterface from = null;
+        AccountInterface to = null;
+        switch (transaction) {
+            case IncomeTransaction income -> to = income.getToAccount();
+            case ExpenseTransaction expense -> from = expense.getFromAccount();
+            case MovementTransaction movement -> {
+                from = movement.getFromAccount();
+                to = movement.getToAccount();
+            }
+            default -> throw new IllegalArgumentException("Unsupported transaction: " + transaction.getClass());
+        }
+        fromAccounts[row] = accountId(from);
+        toAccounts[row] = accountId(to);
+    }
+
+    private int categoryId(String category) {
+        if (category == null) return NONE;
+        return categoryIds.computeIfAbsent(category, name -> {
+            categoryNames.add(name);
+            return categoryNames.size() - 1;
+        });
+    }
+
+    private int accountId(AccountInterface account) {
+        if (account == null) return NONE;
+        accounts.put(account.getAccountId(), account);
+        return account.getAccountId();
+    }
+
+    /**
+     * Gives this store columns of its own before a change to existing rows.
+     */
+    private void unshare() {
+        if (!shared && owner) return;
+
+        int capacity = Math.max(size, DEFAULT_CAPACITY);
+        ids = Arrays.copyOf(ids, capacity);
+        amounts = Arrays.copyOf(amounts, capacity);
+        dates = Arrays.copyOf(dates, capacity);
+        categories = Arrays.copyOf(categories, capacity);
+        fromAccounts = Arrays.copyOf(fromAccounts, capacity);
+        toAccounts = Arrays.copyOf(toAccounts, capacity);
+        types = Arrays.copyOf(types, capacity);
+        reasons = Arrays.copyOf(reasons, capacity);
+        shared = false;
+        owner = true;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= ids.length) return;
+
+        int capacity = Math.max(required, ids.length + (ids.length >> 1));
+        ids = Arrays.copyOf(ids, capacity);
+        amounts = Arrays.copyOf(amounts, capacity);
+        dates = Arrays.copyOf(dates, capacity);
+        categories = Arrays.copyOf(categories, capacity);
+        fromAccounts = Arrays.copyOf(fromAccounts, capacity);
+        toAccounts = Arrays.copyOf(toAccounts, capacity);
+        types = Arrays.copyOf(types, capacity);
+        reasons = Arrays.copyOf(reasons, capacity);
+        // Grown columns are private to this store
+        shared = false;
+    }
+
+    private <A> A shift(A source, A target, int offset) {
+        System.arraycopy(source, 0, target, offset, size);
+        return target;
+    }
+
+    /**
+     * Random-access rows as they were when handed out, failing once the store changes.
+     */
+    private final class LiveRows extends AbstractList<AbstractTransaction> implements RandomAccess {
+        private final int size;
+        private final int expected;
+
+        LiveRows(int size, int expected) {
+            this.size = size;
+            this.expected = expected;
+        }
+
+        @Override
+        public AbstractTransaction get(int index) {
+            Objects.checkIndex(index, size);
+            synchronized (TransactionColumns.this) {
+                if (TransactionColumns.this.modCount != expected) {
+                    throw new ConcurrentModificationException("Transaction columns changed during traversal");
+                }
+                return view(index);
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
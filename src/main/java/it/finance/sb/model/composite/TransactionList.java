@@ -2,55 +2,422 @@ package it.finance.sb.model.composite;
 
 import it.finance.sb.model.iterator.ConcreteTransactionIterator;
 import it.finance.sb.model.iterator.TransactionIterator;
+import it.finance.sb.model.iterator.TransactionSpliterator;
 import it.finance.sb.model.transaction.AbstractTransaction;
+import it.finance.sb.utility.Money;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Spliterator;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * TransactionList is a composite node that can contain individual transactions or nested TransactionLists.
  * Implements Composite pattern.
+ * Content can also be deferred: it is loaded the first time the list is iterated or queried,
+ * while new transactions can still be added without loading it.
+ * A point-in-time copy is taken with {@link #snapshot()}, which shares the content
+ * until either list changes (copy-on-write).
+ * A list created by {@link #columnar()} keeps its transactions in a {@link TransactionColumns}
+ * store instead of one object per transaction; it is iterated and queried the same way.
+ * <p>
+ * Transactions held directly are located by id through an index built on first use, so
+ * removing, finding or modifying one takes constant time. A removed transaction leaves an
+ * empty slot behind, keeping the positions of the others valid; slots are compacted
+ * the next time the list is read, which costs a pass the read makes anyway.
+ * <p>
+ * Count, sum, minimum and maximum are kept up to date as transactions are added,
+ * removed or modified through this list, so {@link #getStats()} and {@link #getTotal()}
+ * read them instead of visiting every transaction; a list combines the figures of its
+ * nested lists when read. Transactions held by a list should therefore be changed
+ * through {@link #modifyTransactionById}; the lists of a user through
+ * {@code User#modifyTransaction}, which also keeps the user's indexes current.
  */
 public class TransactionList implements CompositeTransaction {
-    private final List<CompositeTransaction> compositeList;
+    private List<CompositeTransaction> compositeList;
+    private final List<Supplier<? extends List<? extends CompositeTransaction>>> deferred;
+    private boolean shared;
+    /**
+     * The nested lists and column stores among the content.
+     */
+    private final List<CompositeTransaction> groups = new ArrayList<>();
+    /**
+     * Figures of the transactions held directly.
+     */
+    private RunningStats stats = new RunningStats(Money.FIXED_POINT);
+    private TransactionColumns columns;
+    /**
+     * Slot of every transaction held directly, by id; null until first needed.
+     */
+    private Map<Integer, Integer> positions;
+    private int emptySlots;
+    /**
+     * Number of changes to the content, for fail-fast traversals.
+     */
+    private int modCount;
 
     public TransactionList() {
-        this.compositeList = new ArrayList<>();
+        this(new ArrayList<>(), new ArrayList<>());
+    }
+
+    /**
+     * Creates a list that stores added transactions in primitive columns.
+     * Iteration, queries and totals work as usual, but the transactions it hands
+     * out are views rebuilt from the columns: to change one in place use
+     * {@link #modifyTransactionById}.
+     *
+     * @return the list
+     */
+    public static TransactionList columnar() {
+        TransactionList list = new TransactionList();
+        list.columns = new TransactionColumns();
+        list.compositeList.add(list.columns);
+        list.groups.add(list.columns);
+        return list;
+    }
+
+    /**
+     * Tells whether transactions are stored in columns.
+     *
+     * @return true for a list created by {@link #columnar()}
+     */
+    public boolean isColumnar() {
+        return columns != null;
+    }
+
+    private TransactionList(List<CompositeTransaction> compositeList,
+                            List<Supplier<? extends List<? extends CompositeTransaction>>> deferred) {
+        this.compositeList = compositeList;
+        this.deferred = deferred;
     }
 
     @Override
     public void displayTransaction() {
-        compositeList.forEach(CompositeTransaction::displayTransaction);
+        materialize().forEach(CompositeTransaction::displayTransaction);
     }
 
     @Override
     public double getTotal() {
-        return compositeList.stream()
-                .mapToDouble(CompositeTransaction::getTotal)
-                .sum();
+        return getStats().sum();
     }
 
-    public void addTransaction(CompositeTransaction transaction) {
-        compositeList.add(transaction);
+    /**
+     * Gets the count, sum, minimum and maximum of the amounts, nested lists included.
+     * They are maintained incrementally: this takes time proportional to the number of
+     * nested lists, not transactions, once deferred content is loaded.
+     *
+     * @return the figures
+     */
+    public synchronized TransactionStats getStats() {
+        load();
+        TransactionStats result = stats.get(() -> compositeList.stream()
+                .filter(ct -> ct != null && !isNested(ct))
+                .mapToDouble(CompositeTransaction::getTotal));
+        for (CompositeTransaction group : groups) {
+            result = result.combine(switch (group) {
+                case TransactionList nested -> nested.getStats();
+                case TransactionColumns store -> store.getStats();
+                default -> TransactionStats.EMPTY;
+            });
+        }
+        return result;
     }
 
-    public void addTransactions(List<? extends CompositeTransaction> transactions) {
-        compositeList.addAll(transactions);
+    public synchronized void addTransaction(CompositeTransaction transaction) {
+        if (columns != null && TransactionColumns.supports(transaction)) {
+            columns.add((AbstractTransaction) transaction);
+            return;
+        }
+        List<CompositeTransaction> content = writable();
+        content.add(transaction);
+        modCount++;
+        track(transaction);
+        if (positions != null && transaction instanceof AbstractTransaction tx) {
+            positions.put(tx.getTransactionId(), content.size() - 1);
+        }
     }
 
-    public void remove(CompositeTransaction transaction) {
-        compositeList.remove(transaction);
+    public synchronized void addTransactions(List<? extends CompositeTransaction> transactions) {
+        transactions.forEach(this::addTransaction);
+    }
+
+    /**
+     * Adds content that is loaded only when the list is first iterated or queried.
+     * Deferred content is placed before anything added in the meantime.
+     *
+     * @param loader produces the transactions, called at most once
+     */
+    public synchronized void addDeferred(Supplier<? extends List<? extends CompositeTransaction>> loader) {
+        deferred.add(loader);
+    }
+
+    /**
+     * Tells whether some content has not been loaded yet.
+     *
+     * @return true if deferred content is pending
+     */
+    public synchronized boolean hasDeferredContent() {
+        return !deferred.isEmpty();
+    }
+
+    public synchronized void remove(CompositeTransaction transaction) {
+        load();
+        if (transaction instanceof AbstractTransaction tx) {
+            if (columns != null && columns.removeById(tx.getTransactionId())) return;
+
+            Integer slot = positions().get(tx.getTransactionId());
+            if (slot != null && transaction.equals(compositeList.get(slot))) {
+                stats.remove(compositeList.get(slot).getTotal());
+                writable().set(slot, null);
+                positions.remove(tx.getTransactionId());
+                emptySlots++;
+                modCount++;
+                return;
+            }
+        }
+        compact();
+        if (writable().remove(transaction)) {
+            modCount++;
+            if (isNested(transaction)) {
+                groups.remove(transaction);
+            } else {
+                stats.remove(transaction.getTotal());
+            }
+            positions = null;
+        }
+    }
+
+    /**
+     * Finds a transaction by id, in constant time when this list holds it directly.
+     *
+     * @param id the transaction id
+     * @return the transaction, empty if not found
+     */
+    public synchronized Optional<AbstractTransaction> findTransactionById(int id) {
+        AbstractTransaction direct = direct(id);
+        if (direct != null) return Optional.of(direct);
+        for (CompositeTransaction ct : groups) {
+            if (ct instanceof TransactionList nested) {
+                Optional<AbstractTransaction> found = nested.findTransactionById(id);
+                if (found.isPresent()) return found;
+            } else if (ct instanceof TransactionColumns store) {
+                AbstractTransaction found = store.findById(id);
+                if (found != null) return Optional.of(found);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Takes a point-in-time copy of this list, e.g. to serialize it while this one keeps changing.
+     * The copy shares the content and the deferred loaders instead of copying them, so for a
+     * list without nested lists this takes constant time, and a columnar list snapshots its
+     * columns in constant time too; whichever list changes first makes
+     * its own copy of the content then. Nested lists are snapshotted as well.
+     * The transactions themselves are shared, not copied.
+     *
+     * @return the snapshot
+     */
+    public synchronized TransactionList snapshot() {
+        compact();
+        List<Supplier<? extends List<? extends CompositeTransaction>>> loaders = new ArrayList<>(deferred);
+        if (!groups.isEmpty()) {
+            List<CompositeTransaction> content = new ArrayList<>(compositeList.size());
+            TransactionList copy = new TransactionList(content, loaders);
+            for (CompositeTransaction ct : compositeList) {
+                if (ct instanceof TransactionList nested) {
+                    ct = nested.snapshot();
+                } else if (ct instanceof TransactionColumns store) {
+                    TransactionColumns frozen = store.snapshot();
+                    if (store == columns) copy.columns = frozen;
+                    ct = frozen;
+                }
+                content.add(ct);
+                if (isNested(ct)) copy.groups.add(ct);
+            }
+            copy.stats = stats.copy();
+            return copy;
+        }
+        shared = true;
+        TransactionList copy = new TransactionList(compositeList, loaders);
+        copy.shared = true;
+        copy.stats = stats.copy();
+        return copy;
     }
 
     public ConcreteTransactionIterator iterator() {
-        return new ConcreteTransactionIterator(compositeList);
+        return new ConcreteTransactionIterator(materialize());
+    }
+
+    /**
+     * Gets a splittable traversal of all transactions, nested ones included. It reads the
+     * live content, so taking one copies nothing now or on the next change; it is fail-fast
+     * instead, throwing {@link java.util.ConcurrentModificationException} once this list
+     * changes. A traversal that must not see later changes, e.g. a background save, should
+     * run over a {@link #snapshot()}. It splits on content ranges and nested lists, and
+     * reports its exact size when the list holds no nested lists.
+     *
+     * @return the spliterator
+     */
+    public Spliterator<AbstractTransaction> spliterator() {
+        List<CompositeTransaction> content;
+        boolean flat;
+        int expected;
+        synchronized (this) {
+            content = materialize();
+            flat = groups.isEmpty();
+            expected = modCount;
+        }
+        return new TransactionSpliterator(content, flat, () -> checkUnchanged(expected));
+    }
+
+    private synchronized void checkUnchanged(int expected) {
+        if (modCount != expected) {
+            throw new ConcurrentModificationException("Transaction list changed during traversal");
+        }
+    }
+
+    /**
+     * Streams all transactions, nested ones included, without copying them into a list first.
+     *
+     * @return the stream
+     */
+    public Stream<AbstractTransaction> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Streams all transactions in parallel, splitting the composite across threads.
+     *
+     * @return the stream
+     */
+    public Stream<AbstractTransaction> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
     }
 
     public List<CompositeTransaction> getInternalList() {
+        return Collections.unmodifiableList(materialize());
+    }
+
+    /**
+     * Loads any deferred content and compacts empty slots, for a read of the whole content.
+     */
+    private synchronized List<CompositeTransaction> materialize() {
+        load();
+        compact();
         return compositeList;
     }
 
+    /**
+     * Loads any deferred content, keeping it ahead of the transactions added since.
+     */
+    private void load() {
+        if (!deferred.isEmpty()) {
+            List<CompositeTransaction> loaded = new ArrayList<>();
+            for (Supplier<? extends List<? extends CompositeTransaction>> loader : deferred) {
+                loaded.addAll(loader.get());
+            }
+            deferred.clear();
+            if (columns != null) {
+                // Loaded transactions become rows, ahead of the ones added since
+                List<AbstractTransaction> rows = new ArrayList<>();
+                List<CompositeTransaction> others = new ArrayList<>();
+                for (CompositeTransaction ct : loaded) {
+                    if (TransactionColumns.supports(ct)) {
+                        rows.add((AbstractTransaction) ct);
+                    } else {
+                        others.add(ct);
+                    }
+                }
+                columns.prepend(rows);
+                loaded = others;
+            }
+            writable().addAll(0, loaded);
+            modCount++;
+            loaded.forEach(this::track);
+            positions = null;
+        }
+    }
+
+    /**
+     * Drops the empty slots left by removals, moving the transactions after them.
+     */
+    private void compact() {
+        if (emptySlots == 0) return;
+
+        // A new list, so a snapshot sharing the old one is not disturbed
+        List<CompositeTransaction> live = new ArrayList<>(compositeList.size() - emptySlots);
+        for (CompositeTransaction ct : compositeList) {
+            if (ct == null) continue;
+            if (positions != null && ct instanceof AbstractTransaction tx) {
+                positions.put(tx.getTransactionId(), live.size());
+            }
+            live.add(ct);
+        }
+        compositeList = live;
+        shared = false;
+        emptySlots = 0;
+        modCount++;
+    }
+
+    /**
+     * Gets the slots of the transactions held directly, building the index if needed.
+     */
+    private Map<Integer, Integer> positions() {
+        if (positions == null) {
+            positions = new HashMap<>();
+            for (int i = 0; i < compositeList.size(); i++) {
+                if (compositeList.get(i) instanceof AbstractTransaction tx) {
+                    positions.putIfAbsent(tx.getTransactionId(), i);
+                }
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Gets a transaction held directly by this list, loading deferred content first.
+     */
+    private AbstractTransaction direct(int id) {
+        load();
+        Integer slot = positions().get(id);
+        return slot == null ? null : (AbstractTransaction) compositeList.get(slot);
+    }
+
+    /**
+     * Gets the content for a change, first copying it if a snapshot still shares it.
+     */
+    private List<CompositeTransaction> writable() {
+        if (shared) {
+            compositeList = new ArrayList<>(compositeList);
+            shared = false;
+        }
+        return compositeList;
+    }
+
+    /**
+     * Accounts for content added directly to this list.
+     */
+    private void track(CompositeTransaction ct) {
+        if (isNested(ct)) {
+            groups.add(ct);
+        } else {
+            stats.add(ct.getTotal());
+        }
+    }
+
+    private static boolean isNested(CompositeTransaction ct) {
+        return ct instanceof TransactionList || ct instanceof TransactionColumns;
+    }
+
     public List<AbstractTransaction> getFlattenedTransactions() {
         List<AbstractTransaction> result = new ArrayList<>();
         TransactionIterator iterator = this.iterator();
@@ -60,12 +427,19 @@ public class TransactionList implements CompositeTransaction {
         return result;
     }
 
-    public boolean modifyTransactionById(int id, Consumer<AbstractTransaction> modifier) {
-        for (CompositeTransaction ct : compositeList) {
-            if (ct instanceof AbstractTransaction tx && tx.getTransactionId() == id) {
-                modifier.accept(tx);
+    public synchronized boolean modifyTransactionById(int id, Consumer<AbstractTransaction> modifier) {
+        AbstractTransaction direct = direct(id);
+        if (direct != null) {
+            double before = direct.getTotal();
+            modifier.accept(direct);
+            stats.replace(before, direct.getTotal());
+            return true;
+        }
+
+        for (CompositeTransaction ct : groups) {
+            if (ct instanceof TransactionList nested && nested.modifyTransactionById(id, modifier)) {
                 return true;
-            } else if (ct instanceof TransactionList nested && nested.modifyTransactionById(id, modifier)) {
+            } else if (ct instanceof TransactionColumns store && store.modifyById(id, modifier)) {
                 return true;
             }
         }
@@ -79,13 +453,13 @@ public class TransactionList implements CompositeTransaction {
      * @return list of matching transactions
      */
     public List<AbstractTransaction> filterByCategory(String category) {
-        return getFlattenedTransactions().stream()
+        return stream()
                 .filter(tx -> tx.getCategory().equalsIgnoreCase(category))
                 .toList();
     }
 
     public List<AbstractTransaction> filterByMinAmount(double min) {
-        return getFlattenedTransactions().stream()
+        return stream()
                 .filter(tx -> tx.getAmount() >= min)
                 .toList();
     }
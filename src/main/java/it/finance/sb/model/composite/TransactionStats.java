@@ -0,0 +1,39 @@
+package it.finance.sb.model.composite;
+
+/**
+ * Aggregate figures of a group of transactions.
+ *
+ * @param count the number of transactions
+ * @param sum   the sum of their amounts
+ * @param min   the smallest amount, NaN when there are none
+ * @param max   the largest amount, NaN when there are none
+ */
+public record TransactionStats(long count, double sum, double min, double max) {
+
+    /**
+     * Figures of no transactions.
+     */
+    public static final TransactionStats EMPTY = new TransactionStats(0, 0, Double.NaN, Double.NaN);
+
+    /**
+     * Combines the figures of two disjoint groups.
+     *
+     * @param other the other group
+     * @return the figures of both groups
+     */
+    public TransactionStats combine(TransactionStats other) {
+        if (other.count == 0) return this;
+        if (count == 0) return other;
+        return new TransactionStats(count + other.count, sum + other.sum,
+                Math.min(min, other.min), Math.max(max, other.max));
+    }
+
+    /**
+     * Gets the mean amount.
+     *
+     * @return the average, NaN when there are no transactions
+     */
+    public double average() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+}
@@ -2,6 +2,7 @@ package it.finance.sb.model.decorator;
 
 import it.finance.sb.model.account.AccounType;
 import it.finance.sb.model.account.AccountInterface;
+import it.finance.sb.utility.Money;
 
 /**
  * Decorator that adds investment functionality to any account
@@ -17,13 +18,15 @@ public class InvestmentAccountDecorator implements AccountInterface {
 
     /**
      * Projects account growth over time
+     * In fixed-point mode (see {@link Money}) deposits and each month's interest are
+     * credited in whole cents, as on a statement, so projections match real balances.
      * @param years Number of years to project
      * @param additionalMonthlyDeposit Optional monthly deposit amount
      * @return Array of projected balances for each year
      */
     public double[] projectGrowth(int years, double additionalMonthlyDeposit) {
         double[] projections = new double[years + 1];
-        projections[0] = getBalance();
+        projections[0] = Money.normalize(getBalance());
 
         for (int year = 1; year <= years; year++) {
             // Start with previous year's balance
@@ -31,6 +34,10 @@ public class InvestmentAccountDecorator implements AccountInterface {
 
             // Add monthly deposits across 12 months
             for (int month = 0; month < 12; month++) {
+                if (Money.FIXED_POINT) {
+                    yearEndBalance = Money.addRate(Money.add(yearEndBalance, additionalMonthlyDeposit), interestRate / 12);
+                    continue;
+                }
                 // Add monthly deposit
                 yearEndBalance += additionalMonthlyDeposit;
 
@@ -49,9 +56,9 @@ public class InvestmentAccountDecorator implements AccountInterface {
      */
     public String getInvestmentSummary(int projectionYears) {
         double[] projection = projectGrowth(projectionYears, 0);
-        double initialAmount = getBalance();
+        double initialAmount = projection[0];
         double finalAmount = projection[projectionYears];
-        double totalInterest = finalAmount - initialAmount;
+        double totalInterest = Money.FIXED_POINT ? Money.add(finalAmount, -initialAmount) : finalAmount - initialAmount;
 
         return String.format("""
                         Investment Summary for %s (Rate: %.2f%%)
@@ -1,6 +1,7 @@
 package it.finance.sb.model.iterator;
 
 import it.finance.sb.model.composite.CompositeTransaction;
+import it.finance.sb.model.composite.TransactionColumns;
 import it.finance.sb.model.composite.TransactionList;
 import it.finance.sb.model.transaction.AbstractTransaction;
 
@@ -36,6 +37,9 @@ public class ConcreteTransactionIterator implements TransactionIterator {
                 } else if (ct instanceof TransactionList nested) {
                     stack.push(nested.getInternalList().iterator());
                     it = stack.peek(); // continue with the newly added iterator
+                } else if (ct instanceof TransactionColumns columns) {
+                    stack.push(columns.rows().iterator());
+                    it = stack.peek();
                 }
             }
             stack.pop(); // current iterator is exhausted
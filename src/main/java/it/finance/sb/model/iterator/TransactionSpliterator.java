@@ -0,0 +1,136 @@
+package it.finance.sb.model.iterator;
+
+import it.finance.sb.model.composite.CompositeTransaction;
+import it.finance.sb.model.composite.TransactionColumns;
+import it.finance.sb.model.composite.TransactionList;
+import it.finance.sb.model.transaction.AbstractTransaction;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Splittable traversal of the transactions in a composite, for parallel streams.
+ * It covers a range of a list's content: ranges split in half, and a range down to one
+ * nested list or column store splits that one. It reads the live content without copying
+ * it and is fail-fast: once the list changes, the next step throws
+ * {@link java.util.ConcurrentModificationException}. Nested lists and column stores are
+ * bound when reached. When the content holds no nested lists, the exact size is known and reported.
+ */
+public class TransactionSpliterator implements Spliterator<AbstractTransaction> {
+
+    private final List<CompositeTransaction> content;
+    private final boolean flat;
+    /**
+     * Throws if the list changed since this traversal was handed out.
+     */
+    private final Runnable unchanged;
+    private final int fence;
+    private int index;
+    /**
+     * Traversal of the nested list or column store being visited, if any.
+     */
+    private Spliterator<AbstractTransaction> part;
+
+    /**
+     * Instantiates a new Transaction spliterator over a whole list's content.
+     *
+     * @param content   the content
+     * @param flat      whether the content holds transactions only, no nested lists
+     * @param unchanged throws {@link java.util.ConcurrentModificationException} once the content changed
+     */
+    public TransactionSpliterator(List<CompositeTransaction> content, boolean flat, Runnable unchanged) {
+        this(content, flat, unchanged, 0, content.size());
+    }
+
+    private TransactionSpliterator(List<CompositeTransaction> content, boolean flat, Runnable unchanged,
+                                   int origin, int fence) {
+        this.content = content;
+        this.flat = flat;
+        this.unchanged = unchanged;
+        this.index = origin;
+        this.fence = fence;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super AbstractTransaction> action) {
+        while (true) {
+            if (part != null) {
+                if (part.tryAdvance(action)) return true;
+                part = null;
+            }
+            if (index >= fence) return false;
+
+            unchanged.run();
+            CompositeTransaction ct = content.get(index++);
+            if (ct instanceof AbstractTransaction tx) {
+                action.accept(tx);
+                return true;
+            }
+            part = partOf(ct);
+        }
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super AbstractTransaction> action) {
+        if (part != null) {
+            part.forEachRemaining(action);
+            part = null;
+        }
+        for (; index < fence; index++) {
+            CompositeTransaction ct = content.get(index);
+            if (ct instanceof AbstractTransaction tx) {
+                action.accept(tx);
+            } else {
+                Spliterator<AbstractTransaction> nested = partOf(ct);
+                if (nested != null) nested.forEachRemaining(action);
+            }
+        }
+        unchanged.run();
+    }
+
+    @Override
+    public Spliterator<AbstractTransaction> trySplit() {
+        if (part != null) {
+            // What is left of the nested part comes before the rest of the range
+            return part.trySplit();
+        }
+        int remaining = fence - index;
+        if (remaining > 1) {
+            int middle = index + (remaining >>> 1);
+            Spliterator<AbstractTransaction> prefix = new TransactionSpliterator(content, flat, unchanged, index, middle);
+            index = middle;
+            return prefix;
+        }
+        if (remaining == 1 && !(content.get(index) instanceof AbstractTransaction)) {
+            part = partOf(content.get(index++));
+            return part == null ? null : part.trySplit();
+        }
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        long size = fence - index;
+        if (part != null) {
+            size += part.estimateSize();
+            if (size < 0) return Long.MAX_VALUE;
+        }
+        return size;
+    }
+
+    @Override
+    public int characteristics() {
+        int characteristics = ORDERED | NONNULL;
+        return flat ? characteristics | SIZED | SUBSIZED : characteristics;
+    }
+
+    private static Spliterator<AbstractTransaction> partOf(CompositeTransaction ct) {
+        return switch (ct) {
+            case TransactionList nested -> nested.spliterator();
+            case TransactionColumns store -> store.spliterator();
+            // An empty slot left by a removal during traversal, reported by the next check
+            case null, default -> null;
+        };
+    }
+}
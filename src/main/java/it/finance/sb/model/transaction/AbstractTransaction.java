@@ -1,14 +1,17 @@
 package it.finance.sb.model.transaction;
 
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import it.finance.sb.annotation.Sanitize;
 import it.finance.sb.model.composite.CompositeTransaction;
 import it.finance.sb.io.CsvSerializable;
+import it.finance.sb.utility.Money;
 
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -29,7 +32,7 @@ public abstract class AbstractTransaction implements CompositeTransaction, CsvSe
      */
     @JsonProperty
     protected int transactionId;
-    private static int idCounter = 0;
+    private static final AtomicInteger idCounter = new AtomicInteger();
     /**
      * The Amount.
      */
@@ -50,6 +53,10 @@ public abstract class AbstractTransaction implements CompositeTransaction, CsvSe
      */
     @Sanitize(maxLength = 30)
     protected String category;
+    /**
+     * Id of the category in the owning user's dictionary, -1 until the transaction is added to a user.
+     */
+    private transient int categoryId = -1;
 
     /**
      * The Type.
@@ -66,16 +73,48 @@ public abstract class AbstractTransaction implements CompositeTransaction, CsvSe
      * @param type     the type
      */
     protected AbstractTransaction(double amount, String category, String reason, Date date, TransactionType type) {
-        this.amount = amount;
+        this.amount = Money.normalize(amount);
+        this.reason = reason;
+        this.date = date;
+        this.type = type;
+        this.category = category;
+        this.transactionId = idCounter.incrementAndGet();
+    }
+
+    /**
+     * Instantiates a transaction that keeps an existing id instead of taking a new one.
+     *
+     * @param transactionId the id
+     * @param amount        the amount
+     * @param category      the category
+     * @param reason        the reason
+     * @param date          the date
+     * @param type          the type
+     */
+    protected AbstractTransaction(int transactionId, double amount, String category, String reason, Date date,
+                                  TransactionType type) {
+        this.amount = Money.normalize(amount);
         this.reason = reason;
         this.date = date;
         this.type = type;
         this.category = category;
-        this.transactionId = ++idCounter;
+        this.transactionId = transactionId;
+        reserveIdsUpTo(transactionId);
     }
 
     protected AbstractTransaction() {
-        this.transactionId = ++idCounter;
+        this.transactionId = idCounter.incrementAndGet();
+    }
+
+    /**
+     * Makes sure ids handed out from now on are greater than the given one.
+     * Called after restoring persisted transactions, whose ids must stay unique
+     * because the memento journal refers to them.
+     *
+     * @param usedId the highest id already in use
+     */
+    public static void reserveIdsUpTo(int usedId) {
+        idCounter.accumulateAndGet(usedId, Math::max);
     }
 
     /**
@@ -93,7 +132,17 @@ public abstract class AbstractTransaction implements CompositeTransaction, CsvSe
      * @param amount the amount
      */
     public void setAmount(double amount) {
-        this.amount = amount;
+        this.amount = Money.normalize(amount);
+    }
+
+    /**
+     * Gets the amount in minor units, e.g. cents.
+     *
+     * @return the amount in minor units
+     */
+    @JsonIgnore
+    public long getAmountMinor() {
+        return Money.toMinor(amount);
     }
 
     /**
@@ -173,6 +222,26 @@ public abstract class AbstractTransaction implements CompositeTransaction, CsvSe
      */
     public void setCategory(String category) {
         this.category = category;
+        this.categoryId = -1;
+    }
+
+    /**
+     * Gets the category id assigned by the owning user's dictionary.
+     *
+     * @return the id, -1 if not assigned or if there is no category
+     */
+    @JsonIgnore
+    public int getCategoryId() {
+        return categoryId;
+    }
+
+    /**
+     * Sets the category id assigned by the owning user's dictionary.
+     *
+     * @param categoryId the id
+     */
+    public void setCategoryId(int categoryId) {
+        this.categoryId = categoryId;
     }
 
     public String formatCsvLine(String from, String to, String category, String reason, long dateMillis) {
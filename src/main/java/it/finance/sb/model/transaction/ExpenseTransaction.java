@@ -28,6 +28,12 @@ public class ExpenseTransaction extends AbstractTransaction {
         this.fromAccount = fromAccount;
     }
 
+    ExpenseTransaction(int transactionId, double amount, String category, String reason, Date date,
+                       AccountInterface fromAccount) {
+        super(transactionId, amount, category, reason, date, TransactionType.EXPENSE);
+        this.fromAccount = fromAccount;
+    }
+
     public ExpenseTransaction(){
         super();
     }
@@ -40,6 +46,15 @@ public class ExpenseTransaction extends AbstractTransaction {
         return fromAccount;
     }
 
+    /**
+     * Sets from account.
+     *
+     * @param fromAccount the from account
+     */
+    public void setFromAccount(AccountInterface fromAccount) {
+        this.fromAccount = fromAccount;
+    }
+
     @Override
     public void displayTransaction() {
         System.out.printf("Expense Transaction of %f - from %s - in %s - reason %s %n", amount, fromAccount.getName(), date, reason);
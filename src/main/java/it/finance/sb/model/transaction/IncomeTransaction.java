@@ -28,6 +28,12 @@ public class IncomeTransaction extends AbstractTransaction {
         this.toAccount = toAccount;
     }
 
+    IncomeTransaction(int transactionId, double amount, String category, String reason, Date date,
+                      AccountInterface toAccount) {
+        super(transactionId, amount, category, reason, date, TransactionType.INCOME);
+        this.toAccount = toAccount;
+    }
+
     public IncomeTransaction(){
         super();
     }
@@ -41,6 +47,15 @@ public class IncomeTransaction extends AbstractTransaction {
         return toAccount;
     }
 
+    /**
+     * Sets to account.
+     *
+     * @param toAccount the to account
+     */
+    public void setToAccount(AccountInterface toAccount) {
+        this.toAccount = toAccount;
+    }
+
     @Override
     public void displayTransaction() {
         System.out.printf("Income Transaction of %f - to %s - in %s - reason %s %n", amount, toAccount.getName(), date, reason);
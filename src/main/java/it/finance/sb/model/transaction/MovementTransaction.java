@@ -32,6 +32,13 @@ public class MovementTransaction extends AbstractTransaction {
         this.fromAccount = fromAccount;
     }
 
+    MovementTransaction(int transactionId, double amount, String category, String reason, Date date,
+                        AccountInterface toAccount, AccountInterface fromAccount) {
+        super(transactionId, amount, category, reason, date, TransactionType.MOVEMENT);
+        this.toAccount = toAccount;
+        this.fromAccount = fromAccount;
+    }
+
     public MovementTransaction() {
         super();
     }
@@ -45,6 +52,15 @@ public class MovementTransaction extends AbstractTransaction {
         return toAccount;
     }
 
+    /**
+     * Sets to account.
+     *
+     * @param toAccount the to account
+     */
+    public void setToAccount(AccountInterface toAccount) {
+        this.toAccount = toAccount;
+    }
+
     /**
      * Gets from account.
      *
@@ -54,6 +70,15 @@ public class MovementTransaction extends AbstractTransaction {
         return fromAccount;
     }
 
+    /**
+     * Sets from account.
+     *
+     * @param fromAccount the from account
+     */
+    public void setFromAccount(AccountInterface fromAccount) {
+        this.fromAccount = fromAccount;
+    }
+
     @Override
     public void displayTransaction() {
         System.out.printf("Movement Transaction of %f - from %s - to %s - in %s - reason %s %n", amount, fromAccount.getName(), toAccount.getName(), date, reason);
@@ -13,6 +13,7 @@ public class TransactionBuilder {
     private Date date;
     private AccountInterface to;
     private AccountInterface from;
+    private Integer transactionId;
 
     public TransactionBuilder type(TransactionType type) {
         this.type = type;
@@ -49,7 +50,26 @@ public class TransactionBuilder {
         return this;
     }
 
+    /**
+     * Restores a persisted transaction id instead of generating a new one.
+     *
+     * @param transactionId the persisted id
+     * @return the builder
+     */
+    public TransactionBuilder transactionId(int transactionId) {
+        this.transactionId = transactionId;
+        return this;
+    }
+
     public AbstractTransaction build() {
+        if (transactionId != null) {
+            // Restored transactions keep their id without consuming a new one
+            return switch (type) {
+                case INCOME -> new IncomeTransaction(transactionId, amount, category, reason, date, to);
+                case EXPENSE -> new ExpenseTransaction(transactionId, amount, category, reason, date, from);
+                case MOVEMENT -> new MovementTransaction(transactionId, amount, category, reason, date, to, from);
+            };
+        }
         return switch (type) {
             case INCOME -> new IncomeTransaction(amount, category, reason, date, to);
             case EXPENSE -> new ExpenseTransaction(amount, category, reason, date, from);
@@ -0,0 +1,233 @@
+package it.finance.sb.model.user;
+
+import it.finance.sb.utility.Money;
+
+import java.util.Arrays;
+
+/**
+ * Net balance changes of one account by date, answering "how much changed after date D"
+ * in O(log n). Distinct dates are kept in a sorted {@code long[]} and their net changes in a
+ * Fenwick (binary indexed) tree over the same positions.
+ * <p>
+ * Changes on a date already present, or later than all others, are applied in O(log n).
+ * A change dated in between needs a new position: the arrays are then rebuilt, in linear
+ * time, before the next query.
+ * <p>
+ * In fixed-point mode (see {@link Money}) the changes, the tree and the total are
+ * {@code long} minor units, so sums are exact; amounts are converted on the way in and
+ * results on the way out. Otherwise they are plain {@code double} amounts.
+ */
+final class BalanceTimeline {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final boolean fixedPoint;
+    private long[] dates = new long[INITIAL_CAPACITY];
+    /**
+     * Net change of every date, kept only while the tree is stale.
+     */
+    private double[] changes;
+    private long[] changesMinor;
+    /**
+     * Fenwick tree, 1-based: tree[i] covers the dates in (i - lowbit(i), i].
+     */
+    private double[] tree;
+    private long[] treeMinor;
+    private int size;
+    private boolean stale;
+    private double total;
+    private long totalMinor;
+
+    /**
+     * Instantiates a new balance timeline.
+     *
+     * @param fixedPoint whether to sum in minor units, see {@link Money}
+     */
+    BalanceTimeline(boolean fixedPoint) {
+        this.fixedPoint = fixedPoint;
+        if (fixedPoint) {
+            changesMinor = new long[INITIAL_CAPACITY];
+            treeMinor = new long[INITIAL_CAPACITY + 1];
+        } else {
+            changes = new double[INITIAL_CAPACITY];
+            tree = new double[INITIAL_CAPACITY + 1];
+        }
+    }
+
+    /**
+     * Applies a balance change.
+     *
+     * @param date   the epoch millis of the change
+     * @param amount the signed amount
+     */
+    void add(long date, double amount) {
+        long minor = fixedPoint ? Money.toMinor(amount) : 0;
+        if (fixedPoint) {
+            totalMinor = Math.addExact(totalMinor, minor);
+        } else {
+            total += amount;
+        }
+        int position = Arrays.binarySearch(dates, 0, size, date);
+        if (position >= 0) {
+            if (!stale) {
+                update(position + 1, amount, minor);
+            } else if (fixedPoint) {
+                changesMinor[position] += minor;
+            } else {
+                changes[position] += amount;
+            }
+            return;
+        }
+
+        int insertAt = -position - 1;
+        ensureCapacity(size + 1);
+        if (insertAt == size && !stale) {
+            append(date, amount, minor);
+            return;
+        }
+        if (!stale) unbuild();
+        System.arraycopy(dates, insertAt, dates, insertAt + 1, size - insertAt);
+        dates[insertAt] = date;
+        if (fixedPoint) {
+            System.arraycopy(changesMinor, insertAt, changesMinor, insertAt + 1, size - insertAt);
+            changesMinor[insertAt] = minor;
+        } else {
+            System.arraycopy(changes, insertAt, changes, insertAt + 1, size - insertAt);
+            changes[insertAt] = amount;
+        }
+        size++;
+    }
+
+    /**
+     * Reverts a balance change applied earlier.
+     *
+     * @param date   the epoch millis of the change
+     * @param amount the signed amount that was applied
+     */
+    void remove(long date, double amount) {
+        add(date, -amount);
+    }
+
+    /**
+     * Sums the changes dated after a moment, excluded.
+     *
+     * @param date the epoch millis
+     * @return the net change
+     */
+    double changeAfter(long date) {
+        if (stale) build();
+        int position = Arrays.binarySearch(dates, 0, size, date);
+        int count = position >= 0 ? position + 1 : -position - 1;
+        return fixedPoint ? Money.toMajor(totalMinor - prefixMinor(count)) : total - prefix(count);
+    }
+
+    /**
+     * Sums all the changes.
+     *
+     * @return the net change
+     */
+    double total() {
+        return fixedPoint ? Money.toMajor(totalMinor) : total;
+    }
+
+    private void update(int index, double amount, long minor) {
+        for (int i = index; i <= size; i += i & -i) {
+            if (fixedPoint) {
+                treeMinor[i] += minor;
+            } else {
+                tree[i] += amount;
+            }
+        }
+    }
+
+    /**
+     * Adds a last position: its node covers itself plus a range of earlier positions,
+     * whose sum is the difference of two prefix sums.
+     */
+    private void append(long date, double amount, long minor) {
+        int index = size + 1;
+        int low = index - (index & -index);
+        dates[size] = date;
+        if (fixedPoint) {
+            treeMinor[index] = minor + prefixMinor(index - 1) - prefixMinor(low);
+        } else {
+            tree[index] = amount + prefix(index - 1) - prefix(low);
+        }
+        size++;
+    }
+
+    /**
+     * Sums the changes of the first {@code count} dates.
+     */
+    private double prefix(int count) {
+        double sum = 0;
+        for (int i = count; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    private long prefixMinor(int count) {
+        long sum = 0;
+        for (int i = count; i > 0; i -= i & -i) {
+            sum += treeMinor[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Recovers the per-date changes from the tree, which stops being maintained.
+     */
+    private void unbuild() {
+        for (int i = size; i > 0; i--) {
+            int parent = i + (i & -i);
+            if (parent > size) continue;
+            if (fixedPoint) {
+                treeMinor[parent] -= treeMinor[i];
+            } else {
+                tree[parent] -= tree[i];
+            }
+        }
+        if (fixedPoint) {
+            System.arraycopy(treeMinor, 1, changesMinor, 0, size);
+        } else {
+            System.arraycopy(tree, 1, changes, 0, size);
+        }
+        stale = true;
+    }
+
+    /**
+     * Builds the tree from the per-date changes in linear time.
+     */
+    private void build() {
+        if (fixedPoint) {
+            Arrays.fill(treeMinor, 0);
+        } else {
+            Arrays.fill(tree, 0);
+        }
+        for (int i = 1; i <= size; i++) {
+            int parent = i + (i & -i);
+            if (fixedPoint) {
+                treeMinor[i] += changesMinor[i - 1];
+                if (parent <= size) treeMinor[parent] += treeMinor[i];
+            } else {
+                tree[i] += changes[i - 1];
+                if (parent <= size) tree[parent] += tree[i];
+            }
+        }
+        stale = false;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= dates.length) return;
+        int capacity = Math.max(required, dates.length << 1);
+        dates = Arrays.copyOf(dates, capacity);
+        if (fixedPoint) {
+            changesMinor = Arrays.copyOf(changesMinor, capacity);
+            treeMinor = Arrays.copyOf(treeMinor, capacity + 1);
+        } else {
+            changes = Arrays.copyOf(changes, capacity);
+            tree = Arrays.copyOf(tree, capacity + 1);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package it.finance.sb.model.user;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted trigram index over transaction reasons, for case-insensitive substring search.
+ * Every reason is lower-cased once, when indexed, and each of its three-character
+ * sequences points to the transactions containing it. A keyword's trigrams narrow the
+ * candidates to those holding all of them, which are then checked for the whole keyword.
+ * Keywords shorter than three characters cannot be narrowed and check every reason.
+ */
+final class ReasonIndex {
+
+    private static final int GRAM = 3;
+
+    private final Map<Integer, String> reasons = new LinkedHashMap<>();
+    private final Map<Long, Set<Integer>> postings = new HashMap<>();
+
+    /**
+     * Indexes the reason of a transaction.
+     *
+     * @param transactionId the transaction id
+     * @param reason        the reason, may be null
+     */
+    void add(int transactionId, String reason) {
+        if (reason == null) return;
+        String normalized = normalize(reason);
+        reasons.put(transactionId, normalized);
+        for (long gram : trigrams(normalized)) {
+            postings.computeIfAbsent(gram, k -> new LinkedHashSet<>()).add(transactionId);
+        }
+    }
+
+    /**
+     * Drops the reason of a transaction.
+     *
+     * @param transactionId the transaction id
+     */
+    void remove(int transactionId) {
+        String normalized = reasons.remove(transactionId);
+        if (normalized == null) return;
+        for (long gram : trigrams(normalized)) {
+            Set<Integer> ids = postings.get(gram);
+            if (ids == null) continue;
+            ids.remove(transactionId);
+            if (ids.isEmpty()) postings.remove(gram);
+        }
+    }
+
+    /**
+     * Finds the transactions whose reason contains a keyword, ignoring case.
+     *
+     * @param keyword the keyword
+     * @return the ids of the matching transactions
+     */
+    List<Integer> search(String keyword) {
+        String needle = normalize(keyword);
+        Set<Long> grams = trigrams(needle);
+        List<Integer> matches = new ArrayList<>();
+        if (grams.isEmpty()) {
+            reasons.forEach((id, reason) -> {
+                if (reason.contains(needle)) matches.add(id);
+            });
+            return matches;
+        }
+
+        List<Set<Integer>> lists = new ArrayList<>(grams.size());
+        for (long gram : grams) {
+            Set<Integer> ids = postings.get(gram);
+            if (ids == null) return matches;
+            lists.add(ids);
+        }
+        lists.sort(Comparator.comparingInt(Set::size));
+        Set<Integer> rarest = lists.getFirst();
+        List<Set<Integer>> others = lists.subList(1, lists.size());
+        for (Integer id : rarest) {
+            if (others.stream().allMatch(ids -> ids.contains(id)) && reasons.get(id).contains(needle)) {
+                matches.add(id);
+            }
+        }
+        return matches;
+    }
+
+    private static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Gets the distinct trigrams of a text, each packed into a long of three 16-bit chars.
+     */
+    private static Set<Long> trigrams(String text) {
+        Set<Long> grams = new LinkedHashSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            grams.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2));
+        }
+        return grams;
+    }
+}
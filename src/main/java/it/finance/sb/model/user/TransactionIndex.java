@@ -0,0 +1,272 @@
+package it.finance.sb.model.user;
+
+import it.finance.sb.model.account.AccountInterface;
+import it.finance.sb.model.account.AccountRole;
+import it.finance.sb.model.transaction.AbstractTransaction;
+import it.finance.sb.model.transaction.ExpenseTransaction;
+import it.finance.sb.model.transaction.IncomeTransaction;
+import it.finance.sb.model.transaction.MovementTransaction;
+import it.finance.sb.utility.Money;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Secondary indexes over a user's transactions: by category id, by account id and by date,
+ * the account index recording the {@link AccountRole} of each account in each transaction,
+ * plus a {@link BalanceTimeline} per account for balances as of a past date and a
+ * {@link ReasonIndex} for keyword search in reasons.
+ * Entries refer to transactions by id, so a transaction rebuilt from a columnar store
+ * is found and removed like the original one. Queries cost time proportional to
+ * the result, not to the ledger. Within a key, transactions keep the order they were indexed in.
+ */
+public class TransactionIndex {
+
+    /**
+     * A transaction touching an account.
+     *
+     * @param transaction the transaction
+     * @param role        the part the account plays in it
+     */
+    public record AccountEntry(AbstractTransaction transaction, AccountRole role) {
+
+        /**
+         * Gets the change the transaction makes to the account balance.
+         *
+         * @return the signed amount
+         */
+        public double balanceChange() {
+            if (Money.FIXED_POINT) return Money.toMajor(role.balanceChange(Money.toMinor(transaction.getAmount())));
+            return role.balanceChange(transaction.getAmount());
+        }
+    }
+
+    /**
+     * An account playing a role in a transaction.
+     */
+    private record Incidence(AccountInterface account, AccountRole role) {
+    }
+
+    private final ToIntFunction<AbstractTransaction> categoryIds;
+    private final boolean fixedPoint;
+    private final Map<Integer, AbstractTransaction> byId = new LinkedHashMap<>();
+    private final Map<Integer, Set<Integer>> byCategory = new HashMap<>();
+    private final Map<Integer, Map<Integer, AccountRole>> byAccount = new HashMap<>();
+    private final NavigableMap<Long, Set<Integer>> byDate = new TreeMap<>();
+    private final Map<Integer, BalanceTimeline> timelines = new HashMap<>();
+    private final ReasonIndex reasons = new ReasonIndex();
+
+    /**
+     * Instantiates a new Transaction index.
+     *
+     * @param categoryIds gives the dictionary id of a transaction's category
+     */
+    public TransactionIndex(ToIntFunction<AbstractTransaction> categoryIds) {
+        this(categoryIds, Money.FIXED_POINT);
+    }
+
+    /**
+     * Instantiates a new Transaction index.
+     *
+     * @param categoryIds gives the dictionary id of a transaction's category
+     * @param fixedPoint  whether to sum balance changes in minor units, see {@link Money}
+     */
+    public TransactionIndex(ToIntFunction<AbstractTransaction> categoryIds, boolean fixedPoint) {
+        this.categoryIds = categoryIds;
+        this.fixedPoint = fixedPoint;
+    }
+
+    /**
+     * Indexes a transaction, replacing an earlier one with the same id.
+     *
+     * @param transaction the transaction
+     */
+    public void add(AbstractTransaction transaction) {
+        int id = transaction.getTransactionId();
+        if (byId.containsKey(id)) remove(id);
+
+        byId.put(id, transaction);
+        reasons.add(id, transaction.getReason());
+        int category = categoryIds.applyAsInt(transaction);
+        if (category != UserDictionary.NONE) {
+            byCategory.computeIfAbsent(category, k -> new LinkedHashSet<>()).add(id);
+        }
+        List<Incidence> incidences = incidencesOf(transaction);
+        for (Incidence incidence : incidences) {
+            byAccount.computeIfAbsent(incidence.account().getAccountId(), k -> new LinkedHashMap<>())
+                    .put(id, incidence.role());
+        }
+        if (transaction.getDate() != null) {
+            long date = transaction.getDate().getTime();
+            byDate.computeIfAbsent(date, k -> new LinkedHashSet<>()).add(id);
+            for (Incidence incidence : incidences) {
+                timelines.computeIfAbsent(incidence.account().getAccountId(), k -> new BalanceTimeline(fixedPoint))
+                        .add(date, incidence.role().balanceChange(transaction.getAmount()));
+            }
+        }
+    }
+
+    /**
+     * Drops a transaction from the index.
+     *
+     * @param transactionId the transaction id
+     */
+    public void remove(int transactionId) {
+        AbstractTransaction transaction = byId.remove(transactionId);
+        if (transaction == null) return;
+
+        reasons.remove(transactionId);
+
+        int category = categoryIds.applyAsInt(transaction);
+        if (category != UserDictionary.NONE) {
+            unlink(byCategory, category, transactionId);
+        }
+        List<Incidence> incidences = incidencesOf(transaction);
+        for (Incidence incidence : incidences) {
+            Map<Integer, AccountRole> roles = byAccount.get(incidence.account().getAccountId());
+            if (roles == null) continue;
+            roles.remove(transactionId);
+            if (roles.isEmpty()) byAccount.remove(incidence.account().getAccountId());
+        }
+        if (transaction.getDate() != null) {
+            long date = transaction.getDate().getTime();
+            unlink(byDate, date, transactionId);
+            for (Incidence incidence : incidences) {
+                BalanceTimeline timeline = timelines.get(incidence.account().getAccountId());
+                if (timeline != null) timeline.remove(date, incidence.role().balanceChange(transaction.getAmount()));
+            }
+        }
+    }
+
+    /**
+     * Gets the transactions of a category.
+     *
+     * @param categoryId the category id
+     * @return the transactions
+     */
+    public List<AbstractTransaction> byCategory(int categoryId) {
+        return resolve(byCategory.get(categoryId));
+    }
+
+    /**
+     * Gets the transactions moving money in or out of an account.
+     *
+     * @param accountId the account id
+     * @return the transactions
+     */
+    public List<AbstractTransaction> byAccount(int accountId) {
+        Map<Integer, AccountRole> roles = byAccount.get(accountId);
+        return roles == null ? List.of() : resolve(roles.keySet());
+    }
+
+    /**
+     * Gets the transactions touching an account with the role it plays in each,
+     * in time proportional to the account's activity.
+     *
+     * @param accountId the account id
+     * @return the entries, in the order they were indexed
+     */
+    public List<AccountEntry> entriesFor(int accountId) {
+        Map<Integer, AccountRole> roles = byAccount.get(accountId);
+        if (roles == null) return List.of();
+        List<AccountEntry> entries = new ArrayList<>(roles.size());
+        roles.forEach((id, role) -> entries.add(new AccountEntry(byId.get(id), role)));
+        return entries;
+    }
+
+    /**
+     * Gets the transactions whose reason contains a keyword, ignoring case.
+     *
+     * @param keyword the keyword
+     * @return the transactions
+     */
+    public List<AbstractTransaction> byReason(String keyword) {
+        return resolve(reasons.search(keyword));
+    }
+
+    /**
+     * Gets the transactions dated within a range, in date order.
+     *
+     * @param from the first date included, null for no lower bound
+     * @param to   the last date included, null for no upper bound
+     * @return the transactions
+     */
+    public List<AbstractTransaction> byDate(Date from, Date to) {
+        NavigableMap<Long, Set<Integer>> range = byDate;
+        if (from != null) range = range.tailMap(from.getTime(), true);
+        if (to != null) range = range.headMap(to.getTime(), true);
+        List<AbstractTransaction> result = new ArrayList<>();
+        range.values().forEach(ids -> ids.forEach(id -> result.add(byId.get(id))));
+        return result;
+    }
+
+    /**
+     * Sums the balance changes of an account dated after a moment, in O(log n):
+     * its balance at that moment is the current one minus this.
+     *
+     * @param accountId the account id
+     * @param date      the moment
+     * @return the net change since then
+     */
+    public double balanceChangeAfter(int accountId, Date date) {
+        BalanceTimeline timeline = timelines.get(accountId);
+        if (timeline == null) return 0;
+        return timeline.changeAfter(date.getTime());
+    }
+
+    /**
+     * Gets the number of indexed transactions.
+     *
+     * @return the size
+     */
+    public int size() {
+        return byId.size();
+    }
+
+    private List<AbstractTransaction> resolve(Collection<Integer> ids) {
+        if (ids == null) return List.of();
+        return ids.stream().map(byId::get).toList();
+    }
+
+    private static <K> void unlink(Map<K, Set<Integer>> index, K key, int transactionId) {
+        Set<Integer> ids = index.get(key);
+        if (ids == null) return;
+        ids.remove(transactionId);
+        if (ids.isEmpty()) index.remove(key);
+    }
+
+    /**
+     * Gets the accounts a transaction touches and their roles.
+     * A movement from an account to itself, which only older or imported data can hold, is
+     * indexed there once as {@link AccountRole#MOVEMENT_WITHIN}, so its statement entry and its
+     * timeline both show no change.
+     */
+    private static List<Incidence> incidencesOf(AbstractTransaction transaction) {
+        List<Incidence> incidences = new ArrayList<>(2);
+        switch (transaction) {
+            case IncomeTransaction income -> incidences.add(new Incidence(income.getToAccount(), AccountRole.INCOME));
+            case ExpenseTransaction expense -> incidences.add(new Incidence(expense.getFromAccount(), AccountRole.EXPENSE));
+            case MovementTransaction movement when movement.getFromAccount() != null && movement.getToAccount() != null
+                    && movement.getFromAccount().getAccountId() == movement.getToAccount().getAccountId() ->
+                    incidences.add(new Incidence(movement.getToAccount(), AccountRole.MOVEMENT_WITHIN));
+            case MovementTransaction movement -> {
+                incidences.add(new Incidence(movement.getFromAccount(), AccountRole.MOVEMENT_OUT));
+                incidences.add(new Incidence(movement.getToAccount(), AccountRole.MOVEMENT_IN));
+            }
+            default -> {
+            }
+        }
+        incidences.removeIf(incidence -> incidence.account() == null);
+        return incidences;
+    }
+}
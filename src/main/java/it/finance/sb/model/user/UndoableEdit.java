@@ -0,0 +1,95 @@
+package it.finance.sb.model.user;
+
+import java.util.List;
+
+/**
+ * A change to a user that knows its own inverse.
+ * Edits keep references to the objects they touched and the few values they
+ * overwrote, never a copy of the ledger, so a long history stays small.
+ */
+public interface UndoableEdit {
+
+    /**
+     * Reverts the change. If it fails, it must leave the user as it was before the call.
+     */
+    void undo();
+
+    /**
+     * Applies the change again after it was undone.
+     */
+    void redo();
+
+    /**
+     * Describes the change for the user.
+     *
+     * @return the description
+     */
+    String description();
+
+    /**
+     * Creates an edit from its two directions.
+     *
+     * @param description the description
+     * @param undo        reverts the change
+     * @param redo        applies the change again
+     * @return the edit
+     */
+    static UndoableEdit of(String description, Runnable undo, Runnable redo) {
+        return new UndoableEdit() {
+            @Override
+            public void undo() {
+                undo.run();
+            }
+
+            @Override
+            public void redo() {
+                redo.run();
+            }
+
+            @Override
+            public String description() {
+                return description;
+            }
+        };
+    }
+
+    /**
+     * Combines edits made by one operation into a single step.
+     * They are undone in reverse order and redone in their original order. If a step
+     * fails, the steps already done are rolled back, so the operation is all or nothing.
+     *
+     * @param description the description
+     * @param edits       the edits, in the order they were made
+     * @return the edit
+     */
+    static UndoableEdit compound(String description, List<UndoableEdit> edits) {
+        List<UndoableEdit> steps = List.copyOf(edits);
+        return of(description,
+                () -> {
+                    int i = steps.size() - 1;
+                    try {
+                        for (; i >= 0; i--) {
+                            steps.get(i).undo();
+                        }
+                    } catch (RuntimeException e) {
+                        for (int done = i + 1; done < steps.size(); done++) {
+                            steps.get(done).redo();
+                        }
+                        throw e;
+                    }
+                },
+                () -> {
+                    int i = 0;
+                    try {
+                        for (; i < steps.size(); i++) {
+                            steps.get(i).redo();
+                        }
+                    } catch (RuntimeException e) {
+                        for (int done = i - 1; done >= 0; done--) {
+                            steps.get(done).undo();
+                        }
+                        throw e;
+                    }
+                });
+    }
+}
@@ -8,11 +8,16 @@ import it.finance.sb.model.transaction.AbstractTransaction;
 import it.finance.sb.model.transaction.TransactionType;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * The type User.
  */
 public class User {
+    /**
+     * Whether transactions are kept in columnar lists, see {@link TransactionList#columnar()}.
+     */
+    public static final boolean COLUMNAR_STORE = Boolean.parseBoolean(System.getProperty("financetrack.store.columnar", "false"));
     private static int idCounter = 0;
     @JsonProperty
     private final int userId;
@@ -24,8 +29,16 @@ public class User {
     private final Map<TransactionType, TransactionList> transactionLists = new EnumMap<>(TransactionType.class);
     private List<AccountInterface> accountList;
     private Set<String> categorySet;
+    private final UserDictionary dictionary = new UserDictionary();
+    /**
+     * Allowed categories by dictionary id, kept in step with {@link #categorySet}.
+     */
+    private final BitSet allowedCategories = new BitSet();
     @Sanitize(notBlank = true, /*minLength = 6,*/ maxLength = 100)
     private String password;
+    private final UserChangeLog changeLog = new UserChangeLog();
+    private final UserEditHistory editHistory = new UserEditHistory();
+    private TransactionIndex transactionIndex;
 
     /**
      * Instantiates a new User.
@@ -40,9 +53,10 @@ public class User {
         this.age = age;
         this.gender = gender;
         for (TransactionType type : TransactionType.values()) {
-            transactionLists.put(type, new TransactionList());
+            transactionLists.put(type, COLUMNAR_STORE ? TransactionList.columnar() : new TransactionList());
         }
-        this.categorySet = new HashSet<>(List.of("FOOD", "UTILITIES", "TRANSPORT"));
+        this.categorySet = new HashSet<>();
+        List.of("FOOD", "UTILITIES", "TRANSPORT").forEach(this::addCategory);
         accountList = new ArrayList<>();
         this.password = password;
     }
@@ -162,7 +176,8 @@ public class User {
      * @return the boolean
      */
     public boolean isCategoryAllowed(String category) {
-        return categorySet.contains(category.toUpperCase());
+        int id = dictionary.findCategory(category);
+        return id != UserDictionary.NONE && allowedCategories.get(id);
     }
 
     /**
@@ -171,7 +186,10 @@ public class User {
      * @param category the category
      */
     public void addCategory(String category) {
-        categorySet.add(category.toUpperCase());
+        int id = dictionary.categoryId(category);
+        if (id == UserDictionary.NONE) return;
+        categorySet.add(dictionary.categoryName(id));
+        allowedCategories.set(id);
     }
 
     /**
@@ -180,7 +198,108 @@ public class User {
      * @param transaction the transaction
      */
     public void addTransaction(AbstractTransaction transaction) {
+        transaction.setCategoryId(dictionary.categoryId(transaction.getCategory()));
         this.transactionLists.get(transaction.getType()).addTransaction(transaction);
+        if (transactionIndex != null) transactionIndex.add(transaction);
+        changeLog.recordAdded(transaction);
+    }
+
+    /**
+     * Gets the dictionary id of a transaction's category, assigning it first if the
+     * transaction was not added through {@link #addTransaction}, e.g. loaded history.
+     *
+     * @param transaction the transaction
+     * @return the category id, {@link UserDictionary#NONE} if it has no category
+     */
+    public int categoryIdOf(AbstractTransaction transaction) {
+        int id = transaction.getCategoryId();
+        if (id == UserDictionary.NONE && transaction.getCategory() != null) {
+            id = dictionary.categoryId(transaction.getCategory());
+            transaction.setCategoryId(id);
+        }
+        return id;
+    }
+
+    /**
+     * Changes a transaction of this user in place. The transaction index drops it
+     * under its old category, date, accounts and amount and takes it again under the
+     * new ones, and the change is journaled like an addition, which replaces the
+     * saved version. The modifier must not change the id; account balances are left
+     * to the caller, e.g. {@code TransactionService#modify}.
+     *
+     * @param transaction the transaction
+     * @param modifier    applies the change
+     * @return true if the user holds the transaction
+     */
+    public boolean modifyTransaction(AbstractTransaction transaction, Consumer<AbstractTransaction> modifier) {
+        int id = transaction.getTransactionId();
+        TransactionList list = this.transactionLists.get(transaction.getType());
+        if (list.findTransactionById(id).isEmpty()) return false;
+
+        if (transactionIndex != null) transactionIndex.remove(id);
+        try {
+            list.modifyTransactionById(id, modifier.andThen(tx -> tx.setCategoryId(dictionary.categoryId(tx.getCategory()))));
+        } finally {
+            // Columnar lists hand out views: index what the list now holds
+            AbstractTransaction modified = list.findTransactionById(id).orElseThrow();
+            if (transactionIndex != null) transactionIndex.add(modified);
+            changeLog.recordAdded(modified);
+        }
+        return true;
+    }
+
+    /**
+     * Remove transaction.
+     *
+     * @param transaction the transaction
+     */
+    public void removeTransaction(AbstractTransaction transaction) {
+        this.transactionLists.get(transaction.getType()).remove(transaction);
+        if (transactionIndex != null) transactionIndex.remove(transaction.getTransactionId());
+        changeLog.recordRemoved(transaction);
+    }
+
+    /**
+     * Gets the dictionary giving ids to this user's category names.
+     *
+     * @return the dictionary
+     */
+    public UserDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Gets the secondary indexes of this user's transactions.
+     * They are built, loading any deferred history, on first use and kept up to
+     * date by {@link #addTransaction} and {@link #removeTransaction} from then on.
+     *
+     * @return the transaction index
+     */
+    public TransactionIndex getTransactionIndex() {
+        if (transactionIndex == null) {
+            TransactionIndex index = new TransactionIndex(this::categoryIdOf);
+            transactionLists.values().forEach(list -> list.getFlattenedTransactions().forEach(index::add));
+            transactionIndex = index;
+        }
+        return transactionIndex;
+    }
+
+    /**
+     * Gets the changes applied since the last save.
+     *
+     * @return the change log
+     */
+    public UserChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    /**
+     * Gets the edits of this session that can be undone or redone.
+     *
+     * @return the edit history
+     */
+    public UserEditHistory getEditHistory() {
+        return editHistory;
     }
 
     /**
@@ -213,13 +332,24 @@ public class User {
         return Map.copyOf(result);
     }
 
-
+    /**
+     * Gets the allowed categories, normalized.
+     *
+     * @return the category set
+     */
     public Set<String> getCategorySet() {
-        return categorySet;
+        return Collections.unmodifiableSet(categorySet);
     }
 
+    /**
+     * Replaces the allowed categories.
+     *
+     * @param categorySet the category set
+     */
     public void setCategorySet(Set<String> categorySet) {
-        this.categorySet = categorySet;
+        this.categorySet = new HashSet<>();
+        allowedCategories.clear();
+        categorySet.forEach(this::addCategory);
     }
 
     public List<String> getSortedCategories() {
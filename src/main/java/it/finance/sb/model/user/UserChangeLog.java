@@ -0,0 +1,82 @@
+package it.finance.sb.model.user;
+
+import it.finance.sb.model.transaction.AbstractTransaction;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracks the transactions added to or removed from a user since its last save.
+ * The memento journal persists only these changes instead of the whole ledger.
+ */
+public class UserChangeLog {
+
+    private final Map<Integer, AbstractTransaction> added = new LinkedHashMap<>();
+    private final Set<Integer> removedIds = new LinkedHashSet<>();
+    private String persistedName;
+
+    /**
+     * Records a transaction added to the user.
+     *
+     * @param transaction the transaction
+     */
+    void recordAdded(AbstractTransaction transaction) {
+        added.put(transaction.getTransactionId(), transaction);
+    }
+
+    /**
+     * Records a transaction removed from the user.
+     * Removing a transaction that was never saved simply forgets it.
+     *
+     * @param transaction the transaction
+     */
+    void recordRemoved(AbstractTransaction transaction) {
+        if (added.remove(transaction.getTransactionId()) == null) {
+            removedIds.add(transaction.getTransactionId());
+        }
+    }
+
+    /**
+     * Gets the transactions added since the last save.
+     *
+     * @return the added transactions
+     */
+    public List<AbstractTransaction> getAdded() {
+        return new ArrayList<>(added.values());
+    }
+
+    /**
+     * Gets the ids of the saved transactions removed since the last save.
+     *
+     * @return the removed ids
+     */
+    public List<Integer> getRemovedIds() {
+        return new ArrayList<>(removedIds);
+    }
+
+    /**
+     * Tells whether a base snapshot of this user already exists under the given name,
+     * so that changes can be appended to it.
+     *
+     * @param name the current user name
+     * @return true if a base snapshot was saved or loaded under this name
+     */
+    public boolean hasBaseline(String name) {
+        return persistedName != null && persistedName.equals(name);
+    }
+
+    /**
+     * Marks every recorded change as persisted under the given name.
+     *
+     * @param name the name the user was saved or loaded under
+     */
+    public void markSaved(String name) {
+        added.clear();
+        removedIds.clear();
+        persistedName = name;
+    }
+}
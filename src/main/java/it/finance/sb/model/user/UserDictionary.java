@@ -0,0 +1,118 @@
+package it.finance.sb.model.user;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Per-user dictionary of category names.
+ * Every normalized name (trimmed and upper-cased) gets a dense int id, starting from 0,
+ * so names can be compared as ints and grouped in arrays indexed by id.
+ * Ids are never reused or reassigned, and names are only added, never removed.
+ * Spellings stored in transactions are remembered, so interning them again does not
+ * normalize them; lookups, which may come from any user input, are not remembered.
+ * <p>
+ * Accounts need no entry here: they already carry an int id, which transactions and
+ * the {@link TransactionIndex} use, and their names can change.
+ */
+public class UserDictionary {
+
+    /**
+     * Id of a missing name.
+     */
+    public static final int NONE = -1;
+
+    private final Names categories = new Names();
+
+    /**
+     * Gets the id of a category, adding it if new.
+     *
+     * @param category the category
+     * @return the id, or {@link #NONE} for a null or blank category
+     */
+    public int categoryId(String category) {
+        return categories.intern(category);
+    }
+
+    /**
+     * Gets the id of a category without adding it.
+     *
+     * @param category the category
+     * @return the id, or {@link #NONE} if unknown
+     */
+    public int findCategory(String category) {
+        return categories.find(category);
+    }
+
+    /**
+     * Gets the normalized name of a category id.
+     *
+     * @param id the id
+     * @return the name
+     */
+    public String categoryName(int id) {
+        return categories.name(id);
+    }
+
+    /**
+     * Gets the number of categories, i.e. the size of an array indexed by category id.
+     *
+     * @return the count
+     */
+    public int categoryCount() {
+        return categories.size();
+    }
+
+    /**
+     * Normalizes a name the way the dictionary does.
+     *
+     * @param name the name
+     * @return the trimmed, upper-cased name
+     */
+    public static String normalize(String name) {
+        return name.strip().toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * One namespace of ids. Snapshots may read it from other threads, hence the locking.
+     */
+    private static final class Names {
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final Map<String, Integer> spellings = new HashMap<>();
+
+        synchronized int intern(String name) {
+            if (name == null) return NONE;
+            Integer known = spellings.get(name);
+            if (known != null) return known;
+
+            String normalized = normalize(name);
+            if (normalized.isEmpty()) return NONE;
+            int id = ids.computeIfAbsent(normalized, n -> {
+                names.add(n);
+                return names.size() - 1;
+            });
+            spellings.put(name, id);
+            return id;
+        }
+
+        synchronized int find(String name) {
+            if (name == null) return NONE;
+            Integer known = spellings.get(name);
+            if (known != null) return known;
+
+            Integer id = ids.get(normalize(name));
+            return id == null ? NONE : id;
+        }
+
+        synchronized String name(int id) {
+            return names.get(id);
+        }
+
+        synchronized int size() {
+            return names.size();
+        }
+    }
+}
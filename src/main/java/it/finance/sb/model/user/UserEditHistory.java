@@ -0,0 +1,112 @@
+package it.finance.sb.model.user;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+
+/**
+ * Undo and redo stacks of the edits made to a user during a session.
+ * The history is not persisted: it starts empty every time a user is loaded.
+ * Once it holds {@code capacity} edits, the oldest one is forgotten.
+ */
+public class UserEditHistory {
+
+    /**
+     * Number of edits kept by default.
+     */
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private final int capacity;
+    private final Deque<UndoableEdit> undoStack = new ArrayDeque<>();
+    private final Deque<UndoableEdit> redoStack = new ArrayDeque<>();
+
+    /**
+     * Instantiates a new User edit history keeping {@value #DEFAULT_CAPACITY} edits.
+     */
+    public UserEditHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Instantiates a new User edit history.
+     *
+     * @param capacity the maximum number of edits that can be undone
+     */
+    public UserEditHistory(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Records an edit that was just applied. Edits undone before it can no longer be redone.
+     *
+     * @param edit the edit
+     */
+    public void record(UndoableEdit edit) {
+        undoStack.push(edit);
+        if (undoStack.size() > capacity) {
+            undoStack.removeLast();
+        }
+        redoStack.clear();
+    }
+
+    /**
+     * Reverts the latest edit.
+     * If reverting fails, the edit stays the latest one and can be undone again later.
+     *
+     * @return the description of the reverted edit, empty if there was none
+     */
+    public Optional<String> undo() {
+        UndoableEdit edit = undoStack.peek();
+        if (edit == null) return Optional.empty();
+
+        edit.undo();
+        undoStack.pop();
+        redoStack.push(edit);
+        return Optional.of(edit.description());
+    }
+
+    /**
+     * Applies again the latest reverted edit.
+     * If applying fails, the edit stays the latest reverted one and can be redone again later.
+     *
+     * @return the description of the reapplied edit, empty if there was none
+     */
+    public Optional<String> redo() {
+        UndoableEdit edit = redoStack.peek();
+        if (edit == null) return Optional.empty();
+
+        edit.redo();
+        redoStack.pop();
+        undoStack.push(edit);
+        return Optional.of(edit.description());
+    }
+
+    /**
+     * Can undo boolean.
+     *
+     * @return true if an edit can be reverted
+     */
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    /**
+     * Can redo boolean.
+     *
+     * @return true if a reverted edit can be applied again
+     */
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    /**
+     * Forgets every edit.
+     */
+    public void clear() {
+        undoStack.clear();
+        redoStack.clear();
+    }
+}
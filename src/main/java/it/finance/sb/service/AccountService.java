@@ -7,6 +7,10 @@ import it.finance.sb.factory.FinanceAbstractFactory;
 import it.finance.sb.logging.LoggerFactory;
 import it.finance.sb.model.account.AccounType;
 import it.finance.sb.model.account.AccountInterface;
+import it.finance.sb.model.transaction.AbstractTransaction;
+import it.finance.sb.model.user.TransactionIndex;
+import it.finance.sb.model.user.UndoableEdit;
+import it.finance.sb.model.user.User;
 import it.finance.sb.utility.InputSanitizer;
 
 import java.util.List;
@@ -15,6 +19,7 @@ import java.util.logging.Logger;
 /**
  * AccountService handles the creation, modification, deletion,
  * and display logic for user accounts.
+ * Changes are recorded in the user's edit history so they can be undone.
  */
 public class AccountService extends BaseService {
 
@@ -41,7 +46,10 @@ public class AccountService extends BaseService {
 
         try {
             AccountInterface account = factory.createAccount(type, name, balance);
-            currentUser.addAccount(account);
+            User user = currentUser;
+            user.addAccount(account);
+            recordEdit(UndoableEdit.of("Create account " + account.getName(),
+                    () -> user.removeAccount(account), () -> user.addAccount(account)));
 
             logger.info(() -> String.format("Account created for user='%s' (type=%s)",
                     currentUser.getName(), type));
@@ -65,8 +73,19 @@ public class AccountService extends BaseService {
         }
 
         try {
-            transactionService.removeTransactionsForAccount(account);
-            currentUser.removeAccount(account);
+            User user = currentUser;
+            List<AbstractTransaction> removed = transactionService.removeTransactionsForAccount(account);
+            user.removeAccount(account);
+            // Removing linked transactions leaves balances untouched, so restoring them does too
+            recordEdit(UndoableEdit.of("Delete account " + account.getName(),
+                    () -> {
+                        user.addAccount(account);
+                        removed.forEach(user::addTransaction);
+                    },
+                    () -> {
+                        removed.forEach(user::removeTransaction);
+                        user.removeAccount(account);
+                    }));
 
             logger.info(() -> String.format("Account deleted (ID=%d)", account.getAccountId()));
             return account;
@@ -88,6 +107,9 @@ public class AccountService extends BaseService {
             throw new AccountOperationException("Cannot modify a null account.");
         }
 
+        String oldName = account.getName();
+        AccounType oldType = account.getType();
+        double oldBalance = account.getBalance();
         try {
             if (newName != null && !newName.trim().isEmpty()) {
                 account.setName(newName.trim());
@@ -103,6 +125,12 @@ public class AccountService extends BaseService {
             }
 
             InputSanitizer.validate(account);
+            String name = account.getName();
+            AccounType accountType = account.getType();
+            double balance = account.getBalance();
+            recordEdit(UndoableEdit.of("Modify account " + name,
+                    () -> restore(account, oldName, oldType, oldBalance),
+                    () -> restore(account, name, accountType, balance)));
 
             logger.info(() -> String.format("Account modified (ID=%d)", account.getAccountId()));
             return account;
@@ -112,10 +140,28 @@ public class AccountService extends BaseService {
         }
     }
 
+    private static void restore(AccountInterface account, String name, AccounType type, double balance) {
+        account.setName(name);
+        account.setType(type);
+        account.setDeposit(balance);
+    }
+
     /**
      * Returns all accounts
      */
     public List<AccountInterface> getAllAccount() {
         return getCurrentUser().getAccountList();
     }
+
+    /**
+     * Returns the statement of an account, read from the per-account transaction index.
+     */
+    public List<TransactionIndex.AccountEntry> getStatement(AccountInterface account)
+            throws AccountOperationException, UserLoginException {
+        requireLoggedInUser();
+        if (account == null) {
+            throw new AccountOperationException("Cannot build the statement of a null account.");
+        }
+        return transactionService.getAccountStatement(account);
+    }
 }
@@ -1,8 +1,11 @@
 package it.finance.sb.service;
 
 import it.finance.sb.exception.UserLoginException;
+import it.finance.sb.model.user.UndoableEdit;
 import it.finance.sb.model.user.User;
 
+import java.util.Optional;
+
 /**
  * BaseService provides core user session control and validation
  * to be extended by all service classes.
@@ -51,4 +54,35 @@ public abstract class BaseService {
             throw new UserLoginException("Operation requires a logged-in user.");
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Reverts the latest account or transaction change of the current user.
+     *
+     * @return the description of the reverted change, empty if there was none
+     * @throws UserLoginException if user is not logged in
+     */
+    public Optional<String> undo() throws UserLoginException {
+        requireLoggedInUser();
+        return currentUser.getEditHistory().undo();
+    }
+
+    /**
+     * Applies again the latest change reverted by {@link #undo()}.
+     *
+     * @return the description of the reapplied change, empty if there was none
+     * @throws UserLoginException if user is not logged in
+     */
+    public Optional<String> redo() throws UserLoginException {
+        requireLoggedInUser();
+        return currentUser.getEditHistory().redo();
+    }
+
+    /**
+     * Records a change of the current user so it can be undone.
+     *
+     * @param edit the applied change and its inverse
+     */
+    protected void recordEdit(UndoableEdit edit) {
+        currentUser.getEditHistory().record(edit);
+    }
+}
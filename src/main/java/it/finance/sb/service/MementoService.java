@@ -1,35 +1,119 @@
 package it.finance.sb.service;
 
+import it.finance.sb.exception.ConcurrentSaveException;
 import it.finance.sb.exception.MementoException;
 import it.finance.sb.logging.LoggerFactory;
+import it.finance.sb.mapper.UserJournalEntry;
 import it.finance.sb.mapper.UserMapper;
 import it.finance.sb.mapper.UserSnapshot;
+import it.finance.sb.memento.SavedUserEntry;
+import it.finance.sb.memento.SnapshotWriter;
 import it.finance.sb.memento.UserMementoManager;
 import it.finance.sb.model.user.User;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * The type Memento service.
+ * Saves are written on the calling thread, or handed to a {@link SnapshotWriter}
+ * when background writes are enabled; loads, listings and deletes wait for
+ * pending background writes first so they always see the latest state.
+ * Background saves that failed, and were not recovered by a later save of the
+ * same user, are reported by {@link #awaitPendingWrites} and {@link #close}.
+ * Recently loaded snapshots can be kept in a {@link UserCache}, so switching back
+ * to a user skips reading, decrypting and parsing its files; every load still
+ * gets a new user built from a copy, never one another caller has changed.
+ * A save is refused when another process saved the same user since it was
+ * loaded here, see {@link UserMementoManager#verifyRevision}.
  */
-public class MementoService {
+public class MementoService implements AutoCloseable {
 
     private static final Logger logger = LoggerFactory.getSafeLogger(MementoService.class);
+    private static final long USER_OVERHEAD_BYTES = 4 * 1024;
+    private static final long TRANSACTION_BYTES = 256;
+    private static final int UNKNOWN_SIZE_FACTOR = 16;
+
+    private final boolean lazyTransactions;
+    private final SnapshotWriter writer;
+    private final UserCache cache;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Instantiates a new Memento service loading users eagerly and saving synchronously.
+     */
+    public MementoService() {
+        this(false, false);
+    }
+
+    /**
+     * Instantiates a new Memento service.
+     *
+     * @param lazyTransactions whether loaded users get their transaction history on first access
+     * @param backgroundWrites whether saves are queued to a background writer
+     */
+    public MementoService(boolean lazyTransactions, boolean backgroundWrites) {
+        this(lazyTransactions, backgroundWrites, 0);
+    }
+
+    /**
+     * Instantiates a new Memento service caching recently loaded users.
+     * The cache holds at most {@code cachedUsers} users and an estimated eighth of the heap.
+     *
+     * @param lazyTransactions whether loaded users get their transaction history on first access
+     * @param backgroundWrites whether saves are queued to a background writer
+     * @param cachedUsers      how many loaded users to keep, 0 to disable the cache
+     */
+    public MementoService(boolean lazyTransactions, boolean backgroundWrites, int cachedUsers) {
+        this.lazyTransactions = lazyTransactions;
+        this.writer = backgroundWrites ? new SnapshotWriter() : null;
+        this.cache = cachedUsers > 0 ? new UserCache(cachedUsers, Runtime.getRuntime().maxMemory() / 8) : null;
+    }
 
     /**
      * Save user.
+     * Appends the changes since the last save to the user's journal when a base
+     * snapshot exists, and rewrites the full snapshot otherwise or when the journal
+     * is due for compaction.
      *
      * @param user the user
      * @throws MementoException the memento exception
      */
     public void saveUser(User user) throws MementoException {
         try {
-            UserSnapshot snapshot = UserMapper.toSnapshot(user);
-            UserMementoManager.save(snapshot);
-            logger.info("User '" + user.getName() + "' saved successfully.");
+            if (cache != null) {
+                cache.invalidate(user.getName());
+            }
+            UserMementoManager.verifyRevision(user.getName());
+            boolean lostWrite = writer != null && writer.consumeFailure(user.getName());
+            if (!lostWrite && user.getChangeLog().hasBaseline(user.getName())
+                    && !UserMementoManager.shouldCompact(user.getName())) {
+                UserJournalEntry entry = UserMapper.toJournalEntry(user);
+                if (writer != null) {
+                    writer.submit(entry);
+                } else {
+                    UserMementoManager.append(entry);
+                }
+            } else {
+                UserSnapshot snapshot = UserMapper.toSnapshot(user);
+                if (writer != null) {
+                    writer.submit(snapshot);
+                } else {
+                    UserMementoManager.save(snapshot);
+                }
+            }
+            user.getChangeLog().markSaved(user.getName());
+            if (writer != null) {
+                logger.info("User '" + user.getName() + "' queued for saving.");
+            } else {
+                logger.info("User '" + user.getName() + "' saved successfully.");
+            }
+        } catch (ConcurrentSaveException e) {
+            throw new MementoException("User was changed by another session. Reload it before saving.", e);
         } catch (Exception e) {
             throw new MementoException("Could not save user. Internal error.", e);
         }
@@ -48,8 +132,21 @@ public class MementoService {
         }
 
         try {
-            Optional<UserSnapshot> snapshotOpt = UserMementoManager.load(username);
-            return snapshotOpt.map(UserMapper::fromSnapshot);
+            flushWrites();
+            if (cache == null) {
+                return read(username).map(UserMapper::fromSnapshot);
+            }
+
+            // Read before loading: a write in between makes the entry stale, never the other way round
+            long revision = UserMementoManager.revision(username);
+            UserSnapshot cached = cache.get(username, revision);
+            if (cached != null) {
+                logger.fine(() -> "User '" + username + "' served from cache.");
+                return Optional.of(UserMapper.fromSnapshot(UserMapper.copyOf(cached)));
+            }
+            Optional<UserSnapshot> snapshot = read(username);
+            snapshot.ifPresent(loaded -> cache.put(username, loaded, revision, estimateBytes(username)));
+            return snapshot.map(loaded -> UserMapper.fromSnapshot(UserMapper.copyOf(loaded)));
         } catch (Exception e) {
             throw new MementoException("Failed to load user data.", e);
         }
@@ -61,9 +158,28 @@ public class MementoService {
      * @return the list
      */
     public List<String> listUsers() {
+        try {
+            flushWrites();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         return UserMementoManager.listSavedUsers();
     }
 
+    /**
+     * Lists the catalog entries of the saved users, with their metadata.
+     *
+     * @return the entries, sorted by username
+     */
+    public List<SavedUserEntry> listUserEntries() {
+        try {
+            flushWrites();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return UserMementoManager.listSavedUserEntries();
+    }
+
     /**
      * Delete user boolean.
      *
@@ -72,6 +188,13 @@ public class MementoService {
      */
     public boolean deleteUser(String username) {
         try {
+            if (cache != null) {
+                cache.invalidate(username);
+            }
+            if (writer != null) {
+                writer.discard(username);
+                writer.flush();
+            }
             boolean deleted = UserMementoManager.delete(username);
             logger.info(() -> "Deleted user '" + username + "'");
             return deleted;
@@ -80,4 +203,59 @@ public class MementoService {
             return false;
         }
     }
+
+    private Optional<UserSnapshot> read(String username) throws IOException {
+        return lazyTransactions
+                ? UserMementoManager.load(username, true)
+                : UserMementoManager.load(username);
+    }
+
+    /**
+     * Estimates the heap used by a loaded user from its catalog entry.
+     */
+    private static long estimateBytes(String username) {
+        return UserMementoManager.getSavedUserEntry(username)
+                .map(entry -> entry.transactionCount() >= 0
+                        ? USER_OVERHEAD_BYTES + entry.transactionCount() * TRANSACTION_BYTES
+                        : USER_OVERHEAD_BYTES + entry.size() * UNKNOWN_SIZE_FACTOR)
+                .orElse(USER_OVERHEAD_BYTES);
+    }
+
+    /**
+     * Waits until every save handed to the background writer has been written,
+     * and reports the ones that failed.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     * @throws MementoException     if some users could not be saved and no later save recovered them
+     */
+    public void awaitPendingWrites() throws InterruptedException, MementoException {
+        flushWrites();
+        reportFailedWrites();
+    }
+
+    /**
+     * Writes pending saves, stops the background writer and reports the saves that failed.
+     *
+     * @throws MementoException if some users could not be saved and no later save recovered them
+     */
+    @Override
+    public void close() throws MementoException {
+        if (writer == null || closed.getAndSet(true)) return;
+
+        writer.close();
+        reportFailedWrites();
+    }
+
+    private void flushWrites() throws InterruptedException {
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    private void reportFailedWrites() throws MementoException {
+        List<String> failed = writer == null ? List.of() : writer.getFailedUsers();
+        if (!failed.isEmpty()) {
+            throw new MementoException("Could not save the latest changes of: " + String.join(", ", failed));
+        }
+    }
 }
@@ -7,18 +7,29 @@ import it.finance.sb.factory.FinanceAbstractFactory;
 import it.finance.sb.logging.LoggerFactory;
 import it.finance.sb.model.account.AccountInterface;
 import it.finance.sb.model.composite.TransactionList;
-import it.finance.sb.model.iterator.TransactionIterator;
+import it.finance.sb.model.composite.TransactionStats;
 import it.finance.sb.model.transaction.*;
-
+import it.finance.sb.model.user.UndoableEdit;
+import it.finance.sb.model.user.TransactionIndex;
+import it.finance.sb.model.user.User;
+import it.finance.sb.model.user.UserDictionary;
+import it.finance.sb.utility.Money;
+
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 import java.util.logging.Logger;
 
 /**
  * TransactionService handles the business logic related to creating, modifying,
  * deleting, and retrieving transactions. It enforces account integrity,
  * transaction validation, and category tracking.
+ * Every change is recorded in the user's edit history together with its
+ * inverse, so it can be undone and redone without copying the ledger.
  */
 public class TransactionService extends BaseService {
 
@@ -38,6 +49,18 @@ public class TransactionService extends BaseService {
                                       AccountInterface toAccount, AccountInterface fromAccount)
             throws TransactionOperationException, UserLoginException, DataValidationException {
 
+        AbstractTransaction transaction = add(type, amount, category, reason, date, toAccount, fromAccount);
+        recordEdit(addition(getCurrentUser(), transaction));
+        return transaction;
+    }
+
+    /**
+     * Validates, applies and registers a transaction without recording it in the edit history.
+     */
+    private AbstractTransaction add(TransactionType type, double amount, String category, String reason, Date date,
+                                    AccountInterface toAccount, AccountInterface fromAccount)
+            throws TransactionOperationException, UserLoginException, DataValidationException {
+
         requireLoggedInUser();
 
         if (amount <= 0) {
@@ -84,10 +107,8 @@ public class TransactionService extends BaseService {
         }
 
         try {
-            reverseAccountUpdate(transaction);
-            getCurrentUser().getTransactionLists()
-                    .getOrDefault(transaction.getType(), new TransactionList())
-                    .remove(transaction);
+            detach(getCurrentUser(), transaction);
+            recordEdit(removal(getCurrentUser(), transaction));
 
             logger.info("Deleted transaction ID=" + transaction.getTransactionId());
             return transaction;
@@ -121,8 +142,11 @@ public class TransactionService extends BaseService {
         validateAccounts(type, finalTo, finalFrom);
 
         try {
-            delete(original);
-            AbstractTransaction updated = create(type, finalAmount, finalCategory, finalReason, finalDate, finalTo, finalFrom);
+            User user = getCurrentUser();
+            detach(user, original);
+            AbstractTransaction updated = add(type, finalAmount, finalCategory, finalReason, finalDate, finalTo, finalFrom);
+            recordEdit(UndoableEdit.compound("Modify transaction ID=" + original.getTransactionId(),
+                    List.of(removal(user, original), addition(user, updated))));
 
             logger.info("Transaction modified: OldID=" + original.getTransactionId() +
                     ", NewID=" + updated.getTransactionId());
@@ -133,20 +157,19 @@ public class TransactionService extends BaseService {
     }
 
     /**
-     * Removes all transactions that involve a given account.
+     * Removes all transactions that involve a given account, found through the account index
+     * in time proportional to the account's activity.
+     *
+     * @return the removed transactions
      */
-    public void removeTransactionsForAccount(AccountInterface accountToDelete) {
-        getCurrentUser().getTransactionLists().forEach((type, list) -> {
-            TransactionIterator iterator = list.iterator();
-            while (iterator.hasNext()) {
-                AbstractTransaction tx = iterator.next();
-                if (isTransactionLinkedToAccount(tx, accountToDelete)) {
-                    iterator.remove();
-                    logger.info("Removed transaction ID=" + tx.getTransactionId() +
-                            " due to deletion of account: " + accountToDelete.getName());
-                }
-            }
-        });
+    public List<AbstractTransaction> removeTransactionsForAccount(AccountInterface accountToDelete) {
+        List<AbstractTransaction> linked = getTransactionsByAccount(accountToDelete);
+        for (AbstractTransaction tx : linked) {
+            getCurrentUser().removeTransaction(tx);
+            logger.info("Removed transaction ID=" + tx.getTransactionId() +
+                    " due to deletion of account: " + accountToDelete.getName());
+        }
+        return linked;
     }
 
     /**
@@ -154,37 +177,118 @@ public class TransactionService extends BaseService {
      */
     public List<AbstractTransaction> getAllTransactionsFlattened() {
         return getCurrentUser().getTransactionLists().values().stream()
-                .flatMap(list -> list.getFlattenedTransactions().stream())
+                .flatMap(TransactionList::stream)
                 .toList();
     }
 
     /**
-     * Filters transactions by category (case-insensitive).
+     * Filters transactions by category (case-insensitive), through the category index.
      */
     public List<AbstractTransaction> getTransactionsByCategory(String category) {
-        return getAllTransactionsFlattened().stream()
-                .filter(tx -> tx.getCategory() != null && tx.getCategory().equalsIgnoreCase(category))
-                .toList();
+        User user = getCurrentUser();
+        int id = user.getDictionary().findCategory(category);
+        if (id == UserDictionary.NONE) return List.of();
+        return user.getTransactionIndex().byCategory(id);
+    }
+
+    /**
+     * Sums the transaction amounts of every category, in one pass over an array indexed by category id;
+     * in fixed-point money mode the sums are exact, in minor units.
+     *
+     * @return the totals by normalized category name
+     */
+    public Map<String, Double> getTotalsByCategory() {
+        User user = getCurrentUser();
+        List<AbstractTransaction> transactions = getAllTransactionsFlattened();
+        UserDictionary dictionary = user.getDictionary();
+        double[] totals = new double[0];
+        long[] minorTotals = new long[0];
+        boolean[] present = new boolean[0];
+        for (AbstractTransaction tx : transactions) {
+            int id = user.categoryIdOf(tx);
+            if (id == UserDictionary.NONE) continue;
+            if (id >= present.length) {
+                int length = Math.max(id + 1, dictionary.categoryCount());
+                totals = Arrays.copyOf(totals, length);
+                minorTotals = Arrays.copyOf(minorTotals, length);
+                present = Arrays.copyOf(present, length);
+            }
+            if (Money.FIXED_POINT) {
+                minorTotals[id] += tx.getAmountMinor();
+            } else {
+                totals[id] += tx.getAmount();
+            }
+            present[id] = true;
+        }
+
+        Map<String, Double> result = new TreeMap<>();
+        for (int id = 0; id < present.length; id++) {
+            if (present[id]) {
+                result.put(dictionary.categoryName(id), Money.FIXED_POINT ? Money.toMajor(minorTotals[id]) : totals[id]);
+            }
+        }
+        return result;
     }
 
     /**
      * Filters transactions by type.
      */
     public List<AbstractTransaction> getTransactionsByType(TransactionType type) {
-        return getAllTransactionsFlattened().stream()
-                .filter(tx -> tx.getType() == type)
+        return getCurrentUser().getTransactionLists().get(type).getFlattenedTransactions();
+    }
+
+    /**
+     * Builds the statement of an account: every transaction touching it, with the role the
+     * account plays and the balance change, in date order. Reads only the account's activity.
+     */
+    public List<TransactionIndex.AccountEntry> getAccountStatement(AccountInterface account) {
+        return getCurrentUser().getTransactionIndex().entriesFor(account.getAccountId()).stream()
+                .filter(entry -> isTransactionLinkedToAccount(entry.transaction(), account))
+                .sorted(Comparator.comparing(entry -> entry.transaction().getDate(),
+                        Comparator.nullsFirst(Comparator.naturalOrder())))
                 .toList();
     }
 
     /**
-     * Filters transactions whose reason contains a keyword (case-insensitive).
+     * Gets the count, sum, minimum and maximum amount of a type of transactions, maintained by the list.
      */
-    public List<AbstractTransaction> getTransactionsByReasonContains(String keyword) {
-        return getAllTransactionsFlattened().stream()
-                .filter(tx -> keyword != null && tx.getReason() != null && tx.getReason().toLowerCase().contains(keyword.toLowerCase()))
+    public TransactionStats getStatistics(TransactionType type) {
+        return getCurrentUser().getTransactionLists().get(type).getStats();
+    }
+
+    /**
+     * Filters transactions moving money in or out of an account, through the account index.
+     */
+    public List<AbstractTransaction> getTransactionsByAccount(AccountInterface account) {
+        return getCurrentUser().getTransactionIndex().byAccount(account.getAccountId()).stream()
+                .filter(tx -> isTransactionLinkedToAccount(tx, account))
                 .toList();
     }
 
+    /**
+     * Computes the balance an account had at a moment: the current balance minus the
+     * changes its transactions dated later made, summed in O(log n) by the index.
+     */
+    public double getBalanceAsOf(AccountInterface account, Date date) {
+        double later = getCurrentUser().getTransactionIndex().balanceChangeAfter(account.getAccountId(), date);
+        return Money.FIXED_POINT ? Money.add(account.getBalance(), -later) : account.getBalance() - later;
+    }
+
+    /**
+     * Filters transactions dated within a range (both ends included, null for open), in date order.
+     */
+    public List<AbstractTransaction> getTransactionsBetween(Date from, Date to) {
+        return getCurrentUser().getTransactionIndex().byDate(from, to);
+    }
+
+    /**
+     * Filters transactions whose reason contains a keyword (case-insensitive), through the trigram index.
+     */
+    public List<AbstractTransaction> getTransactionsByReasonContains(String keyword) {
+        if (keyword == null) return List.of();
+        return getCurrentUser().getTransactionIndex().byReason(keyword);
+    }
+
 
     // === Internal helpers ===
 
@@ -201,6 +305,9 @@ public class TransactionService extends BaseService {
                 if (to == null || from == null) {
                     throw new TransactionOperationException("Both accounts required for MOVEMENT.");
                 }
+                if (to.getAccountId() == from.getAccountId()) {
+                    throw new TransactionOperationException("MOVEMENT needs two different accounts.");
+                }
             }
         }
     }
@@ -222,13 +329,41 @@ public class TransactionService extends BaseService {
             case INCOME -> ((IncomeTransaction) tx).getToAccount().update(-amount);
             case EXPENSE -> ((ExpenseTransaction) tx).getFromAccount().update(amount);
             case MOVEMENT -> {
+                // Debit first: it is the update that can fail, and then nothing has changed
                 MovementTransaction m = (MovementTransaction) tx;
-                m.getFromAccount().update(amount);
                 m.getToAccount().update(-amount);
+                m.getFromAccount().update(amount);
             }
         }
     }
 
+    /**
+     * Registers an existing transaction again, applying its effect on the accounts.
+     */
+    private void attach(User user, AbstractTransaction tx) {
+        TransactionType type = tx.getType();
+        applyAccountUpdates(type, tx.getAmount(), resolveTargetAccount(tx, type, null), resolveSourceAccount(tx, type, null));
+        user.addTransaction(tx);
+    }
+
+    /**
+     * Unregisters a transaction, rolling back its effect on the accounts.
+     */
+    private void detach(User user, AbstractTransaction tx) {
+        reverseAccountUpdate(tx);
+        user.removeTransaction(tx);
+    }
+
+    private UndoableEdit addition(User user, AbstractTransaction tx) {
+        return UndoableEdit.of("Create transaction ID=" + tx.getTransactionId(),
+                () -> detach(user, tx), () -> attach(user, tx));
+    }
+
+    private UndoableEdit removal(User user, AbstractTransaction tx) {
+        return UndoableEdit.of("Delete transaction ID=" + tx.getTransactionId(),
+                () -> attach(user, tx), () -> detach(user, tx));
+    }
+
     private boolean isTransactionLinkedToAccount(AbstractTransaction tx, AccountInterface account) {
         return switch (tx.getType()) {
             case INCOME -> ((IncomeTransaction) tx).getToAccount().equals(account);
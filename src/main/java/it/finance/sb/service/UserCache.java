@@ -0,0 +1,101 @@
+package it.finance.sb.service;
+
+import it.finance.sb.mapper.UserSnapshot;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of loaded user snapshots.
+ * Snapshots are never handed out as live users: callers build a new user from a
+ * copy on every hit, so unsaved edits and undo history of one session never
+ * reach the next. Evicts by entry count and by the estimated memory held by the
+ * cached snapshots; snapshots are also softly referenced, so the garbage
+ * collector can drop them under memory pressure. Every entry remembers the
+ * revision of the user's files when it was loaded and is discarded once another
+ * write changes it.
+ */
+class UserCache {
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+
+    private record Entry(SoftReference<UserSnapshot> snapshot, long revision, long bytes) {
+    }
+
+    /**
+     * Instantiates a new User cache.
+     *
+     * @param maxEntries the maximum number of cached snapshots
+     * @param maxBytes   the maximum estimated memory of the cached snapshots
+     */
+    UserCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets a cached snapshot, provided nobody wrote the user since it was loaded.
+     *
+     * @param username the username
+     * @param revision the current revision of the user's files
+     * @return the snapshot, or null on a miss
+     */
+    synchronized UserSnapshot get(String username, long revision) {
+        Entry entry = entries.get(username);
+        if (entry == null) return null;
+
+        UserSnapshot snapshot = entry.snapshot().get();
+        if (snapshot == null || entry.revision() != revision) {
+            invalidate(username);
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Caches a loaded snapshot, evicting the least recently used ones to stay in budget.
+     *
+     * @param username the username
+     * @param snapshot the snapshot
+     * @param revision the revision of the user's files when loaded
+     * @param bytes    the estimated memory held by the loaded user
+     */
+    synchronized void put(String username, UserSnapshot snapshot, long revision, long bytes) {
+        invalidate(username);
+        if (bytes > maxBytes || maxEntries <= 0) return;
+
+        entries.put(username, new Entry(new SoftReference<>(snapshot), revision, bytes));
+        usedBytes += bytes;
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxEntries || usedBytes > maxBytes) {
+            usedBytes -= eldest.next().getValue().bytes();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops the cached snapshot, if any.
+     *
+     * @param username the username
+     */
+    synchronized void invalidate(String username) {
+        Entry removed = entries.remove(username);
+        if (removed != null) {
+            usedBytes -= removed.bytes();
+        }
+    }
+
+    /**
+     * Gets the number of cached snapshots.
+     *
+     * @return the size
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+}
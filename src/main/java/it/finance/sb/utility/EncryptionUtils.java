@@ -3,13 +3,16 @@ package it.finance.sb.utility;
 import it.finance.sb.logging.LoggerFactory;
 
 import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.util.Arrays;
@@ -20,16 +23,20 @@ import java.util.logging.Logger;
  * Utility class for AES encryption and decryption with GCM mode.
  * Provides methods to encrypt and decrypt strings using a securely stored key.
  * Includes username binding for simple integrity validation.
+ * Keys come from the caching {@link KeyProvider}; every encrypted payload records
+ * the key version it was produced with, so older content survives a key rotation.
  */
 public class EncryptionUtils {
 
     private static final String TRANSFORMATION = "AES/GCM/NoPadding";
-    private static final String ALGORITHM = "AES";
 
     private static final int GCM_TAG_LENGTH = 128; // in bits
-    private static final int AES_KEY_SIZE = 16; // 128 bits
     private static final int IV_SIZE = 16;
-    private static final Path DEFAULT_KEY_PATH = Path.of(".secure_keys", "user.key");
+    private static final String VERSION_PREFIX = "k";
+    private static final char VERSION_SEPARATOR = ':';
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(EncryptionUtils::newCipher);
 
     private static final Logger logger = LoggerFactory.getSafeLogger(EncryptionUtils.class);
 
@@ -39,92 +46,177 @@ public class EncryptionUtils {
     }
 
     /**
-     * Retrieves or generates a secret key stored at DEFAULT_KEY_PATH.
-     * Logs relevant actions and errors.
+     * Encrypts plain text using AES-GCM with the current key.
+     * The username is bound to the ciphertext as additional authenticated data.
      *
-     * @return a SecretKeySpec for AES encryption
-     * @throws GeneralSecurityException if any I/O or security issue occurs
+     * @param plainText the data to encrypt
+     * @param username the associated username to bind with the encrypted content
+     * @return the key version followed by the Base64-encoded IV and ciphertext
+     * @throws GeneralSecurityException if encryption fails
      */
-    private static SecretKeySpec getOrCreateSecretKey() throws GeneralSecurityException {
-        try {
-            if (!Files.exists(DEFAULT_KEY_PATH)) {
-                logger.info("Key file not found. Generating new AES key.");
-                String key = generateRandomKey();
-                Files.createDirectories(DEFAULT_KEY_PATH.getParent());
-                Files.writeString(DEFAULT_KEY_PATH, key, StandardOpenOption.CREATE_NEW);
-                logger.info("AES key generated and stored at: " + DEFAULT_KEY_PATH);
-            }
-
-            String rawKey = Files.readString(DEFAULT_KEY_PATH).trim();
-            if (rawKey.length() != AES_KEY_SIZE) {
-                logger.severe("Invalid AES key length found in file.");
-                throw new GeneralSecurityException("Invalid key length in user.key");
-            }
-
-            return new SecretKeySpec(rawKey.getBytes(StandardCharsets.UTF_8), ALGORITHM);
-        } catch (IOException e) {
-            throw new GeneralSecurityException("Failed to retrieve or store encryption key", e);
-        }
+    public static String encrypt(String plainText, String username) throws GeneralSecurityException {
+        int version = KeyProvider.getInstance().getCurrentVersion();
+        byte[] combined = encryptBytes(plainText.getBytes(StandardCharsets.UTF_8), username, version);
+
+        logger.fine(()->"Content encrypted for user: " + username);
+        return VERSION_PREFIX + version + VERSION_SEPARATOR + Base64.getEncoder().encodeToString(combined);
     }
 
     /**
-     * Generates a random 16-byte AES key encoded in Base64.
+     * Decrypts a string produced by {@link #encrypt(String, String)} and validates the bound username.
+     * Strings without a key version are in the original format: encrypted with the
+     * legacy key and carrying the username as a plaintext prefix.
      *
-     * @return a base64-encoded AES key truncated to 16 characters
+     * @param encryptedText the encrypted string
+     * @param expectedUsername the username expected to be bound to the content
+     * @return the decrypted original content (excluding username)
+     * @throws GeneralSecurityException if decryption fails or integrity check fails
      */
-    private static String generateRandomKey() {
-        byte[] keyBytes = new byte[AES_KEY_SIZE];
-        new SecureRandom().nextBytes(keyBytes);
-        return Base64.getEncoder().encodeToString(keyBytes).substring(0, AES_KEY_SIZE);
+    public static String decrypt(String encryptedText, String expectedUsername) throws GeneralSecurityException {
+        int separator = encryptedText.indexOf(VERSION_SEPARATOR);
+        if (!encryptedText.startsWith(VERSION_PREFIX) || separator < 0) {
+            return decryptLegacy(encryptedText, expectedUsername);
+        }
+
+        int version;
+        try {
+            version = Integer.parseInt(encryptedText.substring(VERSION_PREFIX.length(), separator));
+        } catch (NumberFormatException e) {
+            throw new GeneralSecurityException("Invalid key version in encrypted content", e);
+        }
+        byte[] combined = Base64.getDecoder().decode(encryptedText.substring(separator + 1));
+        byte[] decrypted = decryptBytes(combined, expectedUsername, version);
+
+        logger.fine(()->"Decryption successful for user: " + expectedUsername);
+        return new String(decrypted, StandardCharsets.UTF_8);
     }
 
     /**
-     * Encrypts plain text using AES-GCM.
-     * Appends username as a prefix to ensure data binding.
+     * Encrypts a byte array with the given key version, binding the username.
+     * Uses the calling thread's pooled cipher, so bulk callers pay neither key
+     * file reads nor provider lookups per call.
      *
-     * @param plainText the data to encrypt
-     * @param username the associated username to bind with the encrypted content
-     * @return a Base64-encoded encrypted string
+     * @param plain    the data to encrypt
+     * @param username the associated username
+     * @param version  the key version
+     * @return the IV followed by the ciphertext
      * @throws GeneralSecurityException if encryption fails
      */
-    public static String encrypt(String plainText, String username) throws GeneralSecurityException {
-        SecretKeySpec key = getOrCreateSecretKey();
-        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-        byte[] iv = new byte[IV_SIZE];
-        new SecureRandom().nextBytes(iv);
+    public static byte[] encryptBytes(byte[] plain, String username, int version) throws GeneralSecurityException {
+        byte[] iv = newIv();
+        Cipher cipher = CIPHERS.get();
+        cipher.init(Cipher.ENCRYPT_MODE, KeyProvider.getInstance().getKey(version), new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+        cipher.updateAAD(username.getBytes(StandardCharsets.UTF_8));
 
-        GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-        cipher.init(Cipher.ENCRYPT_MODE, key, gcmSpec);
+        byte[] combined = new byte[IV_SIZE + cipher.getOutputSize(plain.length)];
+        System.arraycopy(iv, 0, combined, 0, IV_SIZE);
+        int written = cipher.doFinal(plain, 0, plain.length, combined, IV_SIZE);
+        return written == combined.length - IV_SIZE ? combined : Arrays.copyOf(combined, IV_SIZE + written);
+    }
 
-        String content = username + ":" + plainText;
-        byte[] encrypted = cipher.doFinal(content.getBytes(StandardCharsets.UTF_8));
+    /**
+     * Decrypts a byte array produced by {@link #encryptBytes(byte[], String, int)}.
+     *
+     * @param combined         the IV followed by the ciphertext
+     * @param expectedUsername the username expected to be bound to the content
+     * @param version          the key version
+     * @return the plain bytes
+     * @throws GeneralSecurityException if decryption or authentication fails
+     */
+    public static byte[] decryptBytes(byte[] combined, String expectedUsername, int version) throws GeneralSecurityException {
+        if (combined.length < IV_SIZE) {
+            throw new GeneralSecurityException("Truncated encrypted content");
+        }
+        Cipher cipher = CIPHERS.get();
+        cipher.init(Cipher.DECRYPT_MODE, KeyProvider.getInstance().getKey(version),
+                new GCMParameterSpec(GCM_TAG_LENGTH, combined, 0, IV_SIZE));
+        cipher.updateAAD(expectedUsername.getBytes(StandardCharsets.UTF_8));
+        return cipher.doFinal(combined, IV_SIZE, combined.length - IV_SIZE);
+    }
 
-        byte[] combined = new byte[IV_SIZE + encrypted.length];
-        System.arraycopy(iv, 0, combined, 0, IV_SIZE);
-        System.arraycopy(encrypted, 0, combined, IV_SIZE, encrypted.length);
+    /**
+     * Wraps an output stream so that everything written to it is encrypted with AES-GCM.
+     * The current key version and the random IV are written to the target first; the
+     * username is bound to the ciphertext as additional authenticated data.
+     * Closing the returned stream writes the authentication tag and closes the target.
+     *
+     * @param target   the stream receiving key version, IV and ciphertext
+     * @param username the associated username to bind with the encrypted content
+     * @return a stream encrypting into the target
+     * @throws GeneralSecurityException if the cipher cannot be initialized
+     * @throws IOException              if the header cannot be written
+     */
+    public static OutputStream encryptingStream(OutputStream target, String username)
+            throws GeneralSecurityException, IOException {
+        int version = KeyProvider.getInstance().getCurrentVersion();
+        byte[] iv = newIv();
+        // Streams outlive a single call, so they get their own cipher rather than the pooled one
+        Cipher cipher = newCipher();
+        cipher.init(Cipher.ENCRYPT_MODE, KeyProvider.getInstance().getKey(version), new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+        cipher.updateAAD(username.getBytes(StandardCharsets.UTF_8));
+
+        new DataOutputStream(target).writeInt(version);
+        target.write(iv);
+        logger.fine(()->"Encrypting stream opened for user: " + username);
+        return new CipherOutputStream(target, cipher);
+    }
 
-        logger.fine(()->"Content encrypted for user: " + username);
-        return Base64.getEncoder().encodeToString(combined);
+    /**
+     * Wraps an input stream produced by {@link #encryptingStream(OutputStream, String)}.
+     * Reading fails with an IOException if the content was tampered with or was
+     * encrypted for a different username. Note that the JDK GCM implementation
+     * only releases plaintext once the whole ciphertext has been authenticated.
+     *
+     * @param source           the stream holding key version, IV and ciphertext
+     * @param expectedUsername the username expected to be bound to the content
+     * @return a stream decrypting from the source
+     * @throws GeneralSecurityException if the cipher cannot be initialized
+     * @throws IOException              if the header cannot be read
+     */
+    public static InputStream decryptingStream(InputStream source, String expectedUsername)
+            throws GeneralSecurityException, IOException {
+        int version = new DataInputStream(source).readInt();
+        return decryptingStream(source, expectedUsername, version);
     }
 
     /**
-     * Decrypts encrypted Base64-encoded string and validates the embedded username.
+     * Wraps an input stream holding an IV and ciphertext encrypted with a known key version,
+     * as written before streams recorded their key version.
      *
-     * @param encryptedText the encrypted string
-     * @param expectedUsername the username expected to be embedded
-     * @return the decrypted original content (excluding username)
-     * @throws GeneralSecurityException if decryption fails or integrity check fails
+     * @param source           the stream holding IV and ciphertext
+     * @param expectedUsername the username expected to be bound to the content
+     * @param version          the key version
+     * @return a stream decrypting from the source
+     * @throws GeneralSecurityException if the cipher cannot be initialized
+     * @throws IOException              if the IV cannot be read
      */
-    public static String decrypt(String encryptedText, String expectedUsername) throws GeneralSecurityException {
-        SecretKeySpec key = getOrCreateSecretKey();
-        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+    public static InputStream decryptingStream(InputStream source, String expectedUsername, int version)
+            throws GeneralSecurityException, IOException {
+        byte[] iv = source.readNBytes(IV_SIZE);
+        if (iv.length != IV_SIZE) {
+            throw new GeneralSecurityException("Truncated encrypted content");
+        }
 
-        byte[] combined = Base64.getDecoder().decode(encryptedText);
-        byte[] iv = Arrays.copyOfRange(combined, 0, IV_SIZE);
-        byte[] encrypted = Arrays.copyOfRange(combined, IV_SIZE, combined.length);
+        Cipher cipher = newCipher();
+        cipher.init(Cipher.DECRYPT_MODE, KeyProvider.getInstance().getKey(version), new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+        cipher.updateAAD(expectedUsername.getBytes(StandardCharsets.UTF_8));
+
+        logger.fine(()->"Decrypting stream opened for user: " + expectedUsername);
+        return new CipherInputStream(source, cipher);
+    }
 
-        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
-        byte[] decrypted = cipher.doFinal(encrypted);
+    /**
+     * Decrypts the original Base64 format, where the username is a plaintext prefix.
+     */
+    private static String decryptLegacy(String encryptedText, String expectedUsername) throws GeneralSecurityException {
+        byte[] combined = Base64.getDecoder().decode(encryptedText);
+        Cipher cipher = CIPHERS.get();
+        if (combined.length < IV_SIZE) {
+            throw new GeneralSecurityException("Truncated encrypted content");
+        }
+        cipher.init(Cipher.DECRYPT_MODE, KeyProvider.getInstance().getKey(KeyProvider.LEGACY_VERSION),
+                new GCMParameterSpec(GCM_TAG_LENGTH, combined, 0, IV_SIZE));
+        byte[] decrypted = cipher.doFinal(combined, IV_SIZE, combined.length - IV_SIZE);
 
         String result = new String(decrypted, StandardCharsets.UTF_8);
         if (!result.startsWith(expectedUsername + ":")) {
@@ -135,4 +227,18 @@ public class EncryptionUtils {
         logger.fine(()->"Decryption successful for user: " + expectedUsername);
         return result.substring(expectedUsername.length() + 1);
     }
+
+    private static byte[] newIv() {
+        byte[] iv = new byte[IV_SIZE];
+        RANDOM.nextBytes(iv);
+        return iv;
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cipher not available: " + TRANSFORMATION, e);
+        }
+    }
 }
@@ -0,0 +1,237 @@
+package it.finance.sb.utility;
+
+import it.finance.sb.logging.LoggerFactory;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * KeyProvider loads the AES keys from the key directory once and keeps them in memory.
+ * Keys are versioned: {@code user.key} is version 1, rotated keys are stored as
+ * {@code user.v<N>.key}. The highest version is used to encrypt, every version
+ * stays available to decrypt. Applies the Singleton pattern like LoggerFactory.
+ */
+public class KeyProvider {
+
+    /**
+     * Version of the original, unversioned key file.
+     */
+    public static final int LEGACY_VERSION = 1;
+
+    private static final String ALGORITHM = "AES";
+    private static final int AES_KEY_SIZE = 16; // 128 bits
+    private static final Path DEFAULT_KEY_DIR = Path.of(".secure_keys");
+    private static final Pattern VERSIONED_KEY = Pattern.compile("user\\.v(\\d+)\\.key");
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final Logger logger = LoggerFactory.getSafeLogger(KeyProvider.class);
+
+    private static KeyProvider instance;
+
+    private final Path keyDir;
+    private final Map<Integer, SecretKeySpec> keys = new ConcurrentHashMap<>();
+    private volatile int currentVersion;
+
+    KeyProvider(Path keyDir) {
+        this.keyDir = keyDir;
+    }
+
+    /**
+     * Returns the shared provider reading from the default key directory.
+     *
+     * @return the key provider
+     */
+    public static synchronized KeyProvider getInstance() {
+        if (instance == null) {
+            instance = new KeyProvider(DEFAULT_KEY_DIR);
+        }
+        return instance;
+    }
+
+    /**
+     * Replaces the shared provider with one reading from the given key directory,
+     * e.g. to keep tests away from the real keys.
+     *
+     * @param keyDir the key directory
+     * @return the previous shared provider
+     */
+    public static synchronized KeyProvider useKeyDirectory(Path keyDir) {
+        return setInstance(new KeyProvider(keyDir));
+    }
+
+    /**
+     * Replaces the shared provider.
+     *
+     * @param provider the provider, or null to fall back to the default key directory
+     * @return the previous shared provider
+     */
+    public static synchronized KeyProvider setInstance(KeyProvider provider) {
+        KeyProvider previous = instance;
+        instance = provider;
+        return previous;
+    }
+
+    /**
+     * Gets the version new content is encrypted with.
+     * The legacy key is generated on first use if no key exists yet. Every call
+     * also looks for a key rotated by another process since the last one, so a
+     * long-running session never keeps encrypting with a retired key.
+     *
+     * @return the current key version
+     * @throws GeneralSecurityException if the keys cannot be read or created
+     */
+    public int getCurrentVersion() throws GeneralSecurityException {
+        if (currentVersion == 0) {
+            discover();
+        } else {
+            refresh();
+        }
+        return currentVersion;
+    }
+
+    /**
+     * Gets the key of the given version, reading it from disk only the first time.
+     *
+     * @param version the key version
+     * @return the key
+     * @throws GeneralSecurityException if the key is missing or invalid
+     */
+    public SecretKeySpec getKey(int version) throws GeneralSecurityException {
+        SecretKeySpec key = keys.get(version);
+        if (key != null) return key;
+
+        getCurrentVersion();
+        synchronized (this) {
+            key = keys.get(version);
+            if (key == null) {
+                key = readKey(keyPath(version));
+                keys.put(version, key);
+            }
+            return key;
+        }
+    }
+
+    /**
+     * Generates a new key version and makes it the current one.
+     * Content encrypted with older versions stays readable.
+     *
+     * @return the new key version
+     * @throws GeneralSecurityException if the key cannot be stored
+     */
+    public synchronized int rotate() throws GeneralSecurityException {
+        int next = getCurrentVersion() + 1;
+        writeNewKey(keyPath(next));
+        currentVersion = next;
+        logger.info(() -> "Rotated encryption key to version " + next);
+        return next;
+    }
+
+    /**
+     * Moves to the newest key written since the current version was read.
+     * Versions are numbered consecutively, so when nothing changed this costs one
+     * file check. A key file still being written by its process is not used yet.
+     */
+    private void refresh() {
+        int version = currentVersion;
+        while (isComplete(keyPath(version + 1))) {
+            version++;
+        }
+        if (version == currentVersion) return;
+
+        synchronized (this) {
+            if (version > currentVersion) {
+                int found = version;
+                currentVersion = found;
+                logger.info(() -> "Picked up encryption key version " + found + " rotated by another process");
+            }
+        }
+    }
+
+    private static boolean isComplete(Path keyFile) {
+        try {
+            return Files.size(keyFile) >= AES_KEY_SIZE;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Finds the highest stored key version, creating the legacy key if none exists.
+     */
+    private synchronized void discover() throws GeneralSecurityException {
+        if (currentVersion != 0) return;
+
+        Path legacy = keyPath(LEGACY_VERSION);
+        if (!Files.exists(legacy)) {
+            logger.info("Key file not found. Generating new AES key.");
+            writeNewKey(legacy);
+        }
+
+        int highest = LEGACY_VERSION;
+        try (Stream<Path> files = Files.list(keyDir)) {
+            for (Path file : files.toList()) {
+                Matcher m = VERSIONED_KEY.matcher(file.getFileName().toString());
+                if (m.matches()) {
+                    highest = Math.max(highest, Integer.parseInt(m.group(1)));
+                }
+            }
+        } catch (IOException e) {
+            throw new GeneralSecurityException("Failed to list encryption keys", e);
+        }
+        currentVersion = highest;
+    }
+
+    private Path keyPath(int version) {
+        return version == LEGACY_VERSION
+                ? keyDir.resolve("user.key")
+                : keyDir.resolve("user.v" + version + ".key");
+    }
+
+    private SecretKeySpec readKey(Path path) throws GeneralSecurityException {
+        try {
+            String rawKey = Files.readString(path).trim();
+            if (rawKey.length() != AES_KEY_SIZE) {
+                logger.severe("Invalid AES key length found in file.");
+                throw new GeneralSecurityException("Invalid key length in " + path.getFileName());
+            }
+            logger.fine(() -> "Loaded encryption key: " + path.getFileName());
+            return new SecretKeySpec(rawKey.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        } catch (IOException e) {
+            throw new GeneralSecurityException("Failed to retrieve encryption key", e);
+        }
+    }
+
+    private void writeNewKey(Path path) throws GeneralSecurityException {
+        try {
+            Files.createDirectories(keyDir);
+            Files.writeString(path, generateRandomKey(), StandardOpenOption.CREATE_NEW);
+            logger.info("AES key generated and stored at: " + path);
+        } catch (IOException e) {
+            throw new GeneralSecurityException("Failed to store encryption key", e);
+        }
+    }
+
+    /**
+     * Generates a random 16-byte AES key encoded in Base64.
+     *
+     * @return a base64-encoded AES key truncated to 16 characters
+     */
+    private static String generateRandomKey() {
+        byte[] keyBytes = new byte[AES_KEY_SIZE];
+        RANDOM.nextBytes(keyBytes);
+        return Base64.getEncoder().encodeToString(keyBytes).substring(0, AES_KEY_SIZE);
+    }
+}
@@ -0,0 +1,92 @@
+package it.finance.sb.utility;
+
+/**
+ * Fixed-point helpers for money amounts.
+ * Amounts travel as {@code double} major units (e.g. euros) through the API, but in
+ * fixed-point mode, enabled with {@code -Dfinancetrack.money.fixed=true}, they are kept to
+ * whole minor units (cents) and balances and totals are computed as {@code long} minor units,
+ * so repeated updates never drift.
+ */
+public final class Money {
+
+    /**
+     * Whether amounts are rounded to minor units and added as integers.
+     */
+    public static final boolean FIXED_POINT = Boolean.parseBoolean(System.getProperty("financetrack.money.fixed", "false"));
+    /**
+     * Number of decimal digits of a minor unit.
+     */
+    public static final int SCALE = 2;
+
+    private static final long UNIT = 100;
+
+    private Money() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Converts an amount to minor units, rounding half away from zero.
+     *
+     * @param amount the amount in major units
+     * @return the amount in minor units
+     */
+    public static long toMinor(double amount) {
+        return Math.round(amount * UNIT);
+    }
+
+    /**
+     * Converts minor units to an amount.
+     *
+     * @param minor the amount in minor units
+     * @return the amount in major units
+     */
+    public static double toMajor(long minor) {
+        return minor / (double) UNIT;
+    }
+
+    /**
+     * Rounds an amount to whole minor units.
+     *
+     * @param amount the amount
+     * @return the rounded amount
+     */
+    public static double round(double amount) {
+        return toMajor(toMinor(amount));
+    }
+
+    /**
+     * Adds two amounts exactly, in minor units.
+     *
+     * @param amount the amount
+     * @param delta  the amount to add
+     * @return the sum, rounded to minor units
+     * @throws ArithmeticException if the sum overflows
+     */
+    public static double add(double amount, double delta) {
+        return toMajor(Math.addExact(toMinor(amount), toMinor(delta)));
+    }
+
+    /**
+     * Adds a rate of an amount to it, e.g. a month of interest, with the added part
+     * rounded to whole minor units the way it would be credited.
+     *
+     * @param amount the amount
+     * @param rate   the rate, e.g. 0.004 for 0.4%
+     * @return the amount plus its rate, in whole minor units
+     * @throws ArithmeticException if the result overflows
+     */
+    public static double addRate(double amount, double rate) {
+        long minor = toMinor(amount);
+        return toMajor(Math.addExact(minor, Math.round(minor * rate)));
+    }
+
+    /**
+     * Rounds an amount to minor units in fixed-point mode, leaves it as is otherwise.
+     *
+     * @param amount the amount
+     * @return the amount to store
+     */
+    public static double normalize(double amount) {
+        return FIXED_POINT ? round(amount) : amount;
+    }
+}
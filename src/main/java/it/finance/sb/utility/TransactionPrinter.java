@@ -1,6 +1,8 @@
 package it.finance.sb.utility;
 
+import it.finance.sb.model.account.AccountInterface;
 import it.finance.sb.model.transaction.AbstractTransaction;
+import it.finance.sb.model.user.TransactionIndex;
 
 import java.text.SimpleDateFormat;
 import java.util.Comparator;
@@ -45,4 +47,30 @@ public class TransactionPrinter {
                         tx.getType().name()
                 ));
     }
-}
\ No newline at end of file
+
+    /**
+     * Displays the statement of an account: its transactions with the balance change each made.
+     *
+     * @param account the account
+     * @param entries the statement entries, in date order
+     */
+    public static void printStatement(AccountInterface account, List<TransactionIndex.AccountEntry> entries) {
+        if (entries == null || entries.isEmpty()) {
+            System.out.println(ConsoleStyle.warning(" No transactions found."));
+            return;
+        }
+
+        System.out.println(ConsoleStyle.section(
+                ConsoleEmoji.LIST + "Statement of " + account.getName()));
+
+        entries.forEach(entry -> System.out.printf(
+                "  %s%sChange: %+-9.2f | %sCategory: %-12s | %sReason: %-20s | %sDate: %-10s | Role: %-12s%n",
+                ConsoleEmoji.ROW,
+                ConsoleEmoji.MONEY,      entry.balanceChange(),
+                ConsoleEmoji.CAT,        entry.transaction().getCategory(),
+                ConsoleEmoji.NOTE,       entry.transaction().getReason(),
+                ConsoleEmoji.DATE,       entry.transaction().getDate() == null ? "" : dateFormat.format(entry.transaction().getDate()),
+                entry.role().name()
+        ));
+    }
+}
@@ -3,14 +3,19 @@ package it.finance.sb.composite;
 import it.finance.sb.model.account.Account;
 import it.finance.sb.model.account.AccounType;
 import it.finance.sb.model.composite.TransactionList;
+import it.finance.sb.model.composite.TransactionStats;
 import it.finance.sb.model.transaction.ExpenseTransaction;
 import it.finance.sb.model.transaction.IncomeTransaction;
 import it.finance.sb.model.transaction.AbstractTransaction;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
 import java.util.Date;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -79,4 +84,163 @@ class TransactionListTest {
         assertTrue(flattened.contains(tx2));
         assertTrue(flattened.contains(tx3));
     }
+
+    @Test
+    void testSnapshotIsUnaffectedByLaterChanges() {
+        TransactionList nested = new TransactionList();
+        nested.addTransaction(tx3);
+        mainList.addTransaction(nested);
+
+        TransactionList snapshot = mainList.snapshot();
+        mainList.remove(tx1);
+        nested.remove(tx3);
+        mainList.addTransaction(new IncomeTransaction(10.0, "Gift", "Birthday", new Date(), account1));
+
+        assertEquals(List.of(tx1, tx2, tx3), snapshot.getFlattenedTransactions());
+        assertEquals(2, mainList.getFlattenedTransactions().size());
+
+        snapshot.remove(tx2);
+        assertTrue(mainList.getFlattenedTransactions().contains(tx2));
+    }
+
+    @Test
+    void testColumnarListStoresRowsAndServesViews() {
+        TransactionList columnar = TransactionList.columnar();
+        columnar.addTransactions(List.of(tx1, tx2));
+        columnar.addDeferred(() -> List.of(tx3));
+        columnar.addTransaction(new ExpenseTransaction(0.125, "Fees", "Rounding", new Date(), account1));
+
+        List<AbstractTransaction> rows = columnar.getFlattenedTransactions();
+        assertEquals(List.of(tx3.getTransactionId(), tx1.getTransactionId(), tx2.getTransactionId()),
+                rows.subList(0, 3).stream().map(AbstractTransaction::getTransactionId).toList());
+        assertEquals(tx2.getReason(), rows.get(2).getReason());
+        assertEquals(tx2.getDate(), rows.get(2).getDate());
+        assertSame(account2, ((ExpenseTransaction) rows.get(2)).getFromAccount());
+        assertEquals(180.13, columnar.getTotal(), 1e-9);
+
+        assertTrue(columnar.modifyTransactionById(tx1.getTransactionId(), tx -> tx.setAmount(150.0)));
+        columnar.remove(rows.get(2));
+        assertEquals(List.of(30.0, 150.0, 0.13), columnar.getFlattenedTransactions().stream()
+                .map(AbstractTransaction::getAmount).toList());
+    }
+
+    @Test
+    void testColumnarSnapshotIsUnaffectedByLaterChanges() {
+        TransactionList columnar = TransactionList.columnar();
+        columnar.addTransactions(List.of(tx1, tx2));
+
+        TransactionList snapshot = columnar.snapshot();
+        columnar.addTransaction(tx3);
+        columnar.remove(tx1);
+
+        assertEquals(List.of(tx1.getTransactionId(), tx2.getTransactionId()), snapshot.getFlattenedTransactions()
+                .stream().map(AbstractTransaction::getTransactionId).toList());
+        assertEquals(List.of(tx2.getTransactionId(), tx3.getTransactionId()), columnar.getFlattenedTransactions()
+                .stream().map(AbstractTransaction::getTransactionId).toList());
+    }
+
+    @Test
+    void testColumnarRemovalsByIdKeepOrderAndLookups() {
+        TransactionList columnar = TransactionList.columnar();
+        List<AbstractTransaction> added = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            added.add(new ExpenseTransaction(i + 1.0, "Food", "Meal " + i, new Date(), account1));
+        }
+        columnar.addTransactions(added);
+
+        for (int i = 0; i < added.size(); i += 2) {
+            columnar.remove(added.get(i));
+        }
+        for (int i = 0; i < added.size(); i++) {
+            assertEquals(i % 2 == 1, columnar.findTransactionById(added.get(i).getTransactionId()).isPresent());
+        }
+        assertTrue(columnar.modifyTransactionById(added.get(199).getTransactionId(), tx -> tx.setAmount(1.0)));
+
+        List<AbstractTransaction> rows = columnar.getFlattenedTransactions();
+        assertEquals(100, rows.size());
+        assertEquals(added.get(1).getTransactionId(), rows.get(0).getTransactionId());
+        assertEquals("Meal 199", rows.get(99).getReason());
+        assertEquals(new TransactionStats(100, 9901.0, 1.0, 198.0), columnar.getStats());
+        columnar.remove(rows.get(0));
+        assertEquals(added.get(3).getTransactionId(), columnar.getFlattenedTransactions().get(0).getTransactionId());
+    }
+
+    @Test
+    void testRemoveById_shouldKeepOrderAndSnapshots() {
+        mainList.addTransaction(tx3);
+        TransactionList snapshot = mainList.snapshot();
+
+        mainList.remove(tx2);
+        assertEquals(tx3, mainList.findTransactionById(tx3.getTransactionId()).orElseThrow());
+        assertTrue(mainList.findTransactionById(tx2.getTransactionId()).isEmpty());
+        assertTrue(mainList.modifyTransactionById(tx3.getTransactionId(), tx -> tx.setReason("Metro card")));
+        mainList.remove(tx1);
+        mainList.addTransaction(tx2);
+
+        assertEquals(List.of(tx3, tx2), mainList.getFlattenedTransactions());
+        assertEquals("Metro card", tx3.getReason());
+        assertEquals(List.of(tx1, tx2, tx3), snapshot.getFlattenedTransactions());
+    }
+
+    @Test
+    void testStats_shouldFollowChangesAndNestedLists() {
+        TransactionList nested = new TransactionList();
+        nested.addTransaction(tx3);
+        mainList.addTransaction(nested);
+        assertEquals(new TransactionStats(3, 180.0, 30.0, 100.0), mainList.getStats());
+
+        mainList.remove(tx1);
+        assertTrue(nested.modifyTransactionById(tx3.getTransactionId(), tx -> tx.setAmount(70.0)));
+        assertEquals(new TransactionStats(2, 120.0, 50.0, 70.0), mainList.getStats());
+        assertEquals(120.0, mainList.getTotal(), 0.01);
+
+        TransactionList columnar = TransactionList.columnar();
+        columnar.addTransactions(List.of(tx1, tx2));
+        columnar.remove(tx2);
+        assertEquals(new TransactionStats(1, 100.0, 100.0, 100.0), columnar.getStats());
+        columnar.remove(tx1);
+        assertEquals(TransactionStats.EMPTY, columnar.getStats());
+    }
+
+    @Test
+    void testColumnarSpliterator_shouldFailFastOnChanges() {
+        TransactionList columnar = TransactionList.columnar();
+        columnar.addTransactions(List.of(tx1, tx2));
+
+        Spliterator<AbstractTransaction> rows = columnar.spliterator();
+        assertTrue(rows.tryAdvance(tx -> assertEquals(tx1.getTransactionId(), tx.getTransactionId())));
+        columnar.addTransaction(tx3);
+        assertThrows(ConcurrentModificationException.class, () -> rows.tryAdvance(tx -> { }));
+
+        // Reading leaves the columns to the list: later changes are plain appends and removals
+        assertEquals(180.0, columnar.stream().mapToDouble(AbstractTransaction::getAmount).sum(), 0.01);
+        columnar.remove(tx2);
+        assertEquals(List.of(tx1.getTransactionId(), tx3.getTransactionId()), columnar.stream()
+                .map(AbstractTransaction::getTransactionId).toList());
+    }
+
+    @Test
+    void testSpliterator_shouldSplitFlatAndNestedContent() {
+        Spliterator<AbstractTransaction> flat = mainList.spliterator();
+        assertTrue(flat.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED));
+        assertEquals(2, flat.estimateSize());
+        assertEquals(1, flat.trySplit().estimateSize());
+
+        TransactionList nested = new TransactionList();
+        nested.addTransaction(tx3);
+        TransactionList columnar = TransactionList.columnar();
+        columnar.addTransaction(new IncomeTransaction(20.0, "Gift", "Birthday", new Date(), account1));
+        mainList.addTransaction(nested);
+        mainList.addTransaction(columnar);
+
+        Stream<AbstractTransaction> parallel = mainList.parallelStream();
+        mainList.remove(tx1);
+        // Streams read the live content, failing fast on a change instead of copying it
+        assertThrows(ConcurrentModificationException.class,
+                () -> parallel.mapToDouble(AbstractTransaction::getAmount).sum());
+        assertEquals(100.0, mainList.parallelStream().mapToDouble(AbstractTransaction::getAmount).sum(), 0.01);
+        assertFalse(mainList.spliterator().hasCharacteristics(Spliterator.SIZED));
+        assertEquals(List.of(tx2.getTransactionId(), tx3.getTransactionId()), mainList.stream().limit(2)
+                .map(AbstractTransaction::getTransactionId).toList());
+    }
 }
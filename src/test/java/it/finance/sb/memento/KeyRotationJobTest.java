@@ -0,0 +1,91 @@
+package it.finance.sb.memento;
+
+import it.finance.sb.mapper.UserMapper;
+import it.finance.sb.model.account.AccounType;
+import it.finance.sb.model.account.Account;
+import it.finance.sb.model.transaction.ExpenseTransaction;
+import it.finance.sb.model.transaction.TransactionType;
+import it.finance.sb.model.user.Gender;
+import it.finance.sb.model.user.User;
+import it.finance.sb.utility.KeyProvider;
+import it.finance.sb.utility.PasswordUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyRotationJobTest {
+
+    private static final String FIRST = "TestUserRotationA";
+    private static final String SECOND = "TestUserRotationB";
+
+    @TempDir
+    Path tempDir;
+
+    private KeyProvider previousKeys;
+    private Path previousSaveDir;
+
+    @BeforeEach
+    void isolate() {
+        previousKeys = KeyProvider.useKeyDirectory(tempDir.resolve("keys"));
+        previousSaveDir = UserMementoManager.useSaveDirectory(tempDir.resolve("saved_users"));
+    }
+
+    @AfterEach
+    void restore() {
+        UserMementoManager.useSaveDirectory(previousSaveDir);
+        KeyProvider.setInstance(previousKeys);
+    }
+
+    @Test
+    void testRotationReencryptsAndResumesFromCheckpoint() throws Exception {
+        User first = new User(FIRST, 30, Gender.MALE, PasswordUtils.hash("Password"));
+        User second = new User(SECOND, 31, Gender.FEMALE, PasswordUtils.hash("Password"));
+        Account account = new Account("Bank", 100.0, AccounType.BANK);
+        second.addAccount(account);
+        UserMementoManager.save(UserMapper.toSnapshot(first));
+        UserMementoManager.save(UserMapper.toSnapshot(second));
+        second.getChangeLog().markSaved(SECOND);
+        second.addTransaction(new ExpenseTransaction(9.0, "FOOD", "Pizza", new Date(), account));
+        UserMementoManager.append(UserMapper.toJournalEntry(second));
+
+        long revision = UserMementoManager.revision(SECOND);
+        Path checkpoint = tempDir.resolve("rotation.checkpoint");
+        KeyRotationJob.Result result = new KeyRotationJob(checkpoint, 4).run();
+        // Sessions that loaded the user before the rotation must not overwrite it
+        assertEquals(revision + 1, UserMementoManager.revision(SECOND));
+        assertFalse(result.failed().contains(FIRST));
+        assertFalse(result.failed().contains(SECOND));
+        assertEquals(result.keyVersion(), snapshotKeyVersion(FIRST));
+        assertEquals(result.keyVersion(), snapshotKeyVersion(SECOND));
+        assertEquals(1, UserMementoManager.load(SECOND).orElseThrow()
+                .transactions().get(TransactionType.EXPENSE).size());
+
+        // An interrupted run resumes its key version and skips finished users
+        String firstId = UserMementoManager.getSavedUserEntry(FIRST).orElseThrow().fileId();
+        Files.writeString(checkpoint, "version=" + result.keyVersion() + System.lineSeparator()
+                + firstId + System.lineSeparator());
+        KeyRotationJob.Result resumed = new KeyRotationJob(checkpoint, 4).run();
+        assertEquals(result.keyVersion(), resumed.keyVersion());
+        assertEquals(1, resumed.skipped());
+        assertEquals(30, UserMementoManager.load(FIRST).orElseThrow().age());
+    }
+
+    private static int snapshotKeyVersion(String username) throws Exception {
+        try (InputStream file = Files.newInputStream(UserMementoManager.snapshotPath(username))) {
+            DataInputStream in = new DataInputStream(file);
+            in.readInt();
+            in.readByte();
+            in.readByte();
+            return in.readInt();
+        }
+    }
+}
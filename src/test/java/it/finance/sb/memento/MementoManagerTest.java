@@ -1,24 +1,58 @@
 package it.finance.sb.memento;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.finance.sb.exception.ConcurrentSaveException;
+import it.finance.sb.factory.FinanceAbstractFactory;
 import it.finance.sb.mapper.UserMapper;
 import it.finance.sb.mapper.UserSnapshot;
+import it.finance.sb.model.account.AccounType;
+import it.finance.sb.model.account.Account;
+import it.finance.sb.model.account.AccountInterface;
+import it.finance.sb.model.composite.TransactionList;
+import it.finance.sb.model.transaction.AbstractTransaction;
+import it.finance.sb.model.transaction.ExpenseTransaction;
+import it.finance.sb.model.transaction.IncomeTransaction;
+import it.finance.sb.model.transaction.MovementTransaction;
+import it.finance.sb.model.transaction.TransactionType;
 import it.finance.sb.model.user.Gender;
 import it.finance.sb.model.user.User;
+import it.finance.sb.service.TransactionService;
+import it.finance.sb.service.UserService;
+import it.finance.sb.utility.EncryptionUtils;
 import it.finance.sb.utility.PasswordUtils;
 import org.junit.jupiter.api.MethodOrderer;
 import org.junit.jupiter.api.Order;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
 import java.util.Optional;
+import java.util.zip.Deflater;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
 
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
 class MementoManagerTest {
 
     private static final String TEST_NAME = "TestUserMemento";
+    private static final String JOURNAL_NAME = "TestUserJournal";
+    private static final String LEGACY_NAME = "TestUserLegacy";
+    private static final String SEGMENTED_NAME = "TestUserSegmented";
+    private static final String LAZY_NAME = "TestUserLazy";
+    private static final String BINARY_NAME = "TestUserBinary";
+    private static final String COMPRESSED_NAME = "TestUserCompressed";
+    private static final String SPACED_NAME = "Test User Catalog";
+    private static final String UNDERSCORED_NAME = "Test_User_Catalog";
+    private static final String REVISION_NAME = "TestUserRevision";
+    private static final String RELINK_NAME = "TestUserRelink";
 
     @Test
     @Order(1)
@@ -50,4 +84,323 @@ class MementoManagerTest {
         assertTrue(UserMementoManager.delete(TEST_NAME));
         assertFalse(UserMementoManager.load(TEST_NAME).isPresent());
     }
+
+    @Test
+    @Order(4)
+    void testJournalEntriesAreReplayedOnLoad() throws Exception {
+        User user = new User(JOURNAL_NAME, 40, Gender.FEMALE, PasswordUtils.hash("Password"));
+        Account account = new Account("Bank", 1000.0, AccounType.BANK);
+        user.addAccount(account);
+        AbstractTransaction salary = new IncomeTransaction(500.0, "SALARY", "Pay", new Date(), account);
+        user.addTransaction(salary);
+        UserMementoManager.save(UserMapper.toSnapshot(user));
+        user.getChangeLog().markSaved(JOURNAL_NAME);
+
+        AbstractTransaction rent = new ExpenseTransaction(300.0, "RENT", "Flat", new Date(), account);
+        user.addTransaction(rent);
+        user.removeTransaction(salary);
+        user.addCategory("RENT");
+        UserMementoManager.append(UserMapper.toJournalEntry(user));
+
+        Optional<UserSnapshot> loaded = UserMementoManager.load(JOURNAL_NAME);
+        assertTrue(loaded.isPresent());
+        User restored = UserMapper.fromSnapshot(loaded.get());
+
+        List<AbstractTransaction> expenses = restored.getTransactionLists().get(TransactionType.EXPENSE).getFlattenedTransactions();
+        assertEquals(1, expenses.size());
+        assertEquals(rent.getTransactionId(), expenses.get(0).getTransactionId());
+        assertTrue(restored.getTransactionLists().get(TransactionType.INCOME).getFlattenedTransactions().isEmpty());
+        assertTrue(restored.isCategoryAllowed("RENT"));
+        assertSame(restored.getAccountList().get(0), ((ExpenseTransaction) expenses.get(0)).getFromAccount());
+        assertEquals(1000.0, restored.getAccountList().get(0).getBalance());
+
+        assertTrue(UserMementoManager.delete(JOURNAL_NAME));
+    }
+
+    @Test
+    @Order(5)
+    void testLegacyJsonSnapshotIsLoadedAndMigratedOnSave() throws Exception {
+        User user = new User(LEGACY_NAME, 50, Gender.OTHER, PasswordUtils.hash("Password"));
+        String json = new ObjectMapper().writeValueAsString(UserMapper.toSnapshot(user));
+        Path legacy = Path.of("saved_users", LEGACY_NAME + UserMementoManager.JSON);
+        Files.writeString(legacy, EncryptionUtils.encrypt(json, LEGACY_NAME));
+        UserMementoManager.migrateFlatLayout();
+        assertFalse(Files.exists(legacy));
+
+        Optional<UserSnapshot> loaded = UserMementoManager.load(LEGACY_NAME);
+        assertTrue(loaded.isPresent());
+        assertEquals(50, loaded.get().age());
+
+        UserMementoManager.save(loaded.get());
+        assertFalse(Files.exists(UserMementoManager.shardDirectory(LEGACY_NAME).resolve(LEGACY_NAME + UserMementoManager.JSON)));
+        assertTrue(Files.exists(UserMementoManager.snapshotPath(LEGACY_NAME)));
+        assertEquals(UserMementoManager.shardDirectory(LEGACY_NAME), UserMementoManager.snapshotPath(LEGACY_NAME).getParent());
+        assertEquals(50, UserMementoManager.load(LEGACY_NAME).orElseThrow().age());
+
+        assertTrue(UserMementoManager.delete(LEGACY_NAME));
+    }
+
+    @Test
+    @Order(6)
+    void testCorruptSegmentOnlyLosesItsOwnTransactions() throws Exception {
+        User user = new User(SEGMENTED_NAME, 35, Gender.MALE, PasswordUtils.hash("Password"));
+        Account account = new Account("Wallet", 100.0, AccounType.CASH);
+        user.addAccount(account);
+        int total = SegmentedSnapshotFormat.SEGMENT_SIZE + 500;
+        for (int i = 0; i < total; i++) {
+            user.addTransaction(new ExpenseTransaction(1.0, "FOOD", "Snack " + i, new Date(), account));
+        }
+        UserMementoManager.save(UserMapper.toSnapshot(user));
+
+        User restored = UserMapper.fromSnapshot(UserMementoManager.load(SEGMENTED_NAME).orElseThrow());
+        assertEquals(total, restored.getTransactionLists().get(TransactionType.EXPENSE).getFlattenedTransactions().size());
+
+        // Flip a byte inside the last segment
+        Path file = UserMementoManager.snapshotPath(SEGMENTED_NAME);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 20] ^= 0x5A;
+        Files.write(file, bytes);
+
+        User partial = UserMapper.fromSnapshot(UserMementoManager.load(SEGMENTED_NAME).orElseThrow());
+        assertEquals(SEGMENTED_NAME, partial.getName());
+        assertEquals(1, partial.getAccountList().size());
+        assertEquals(SegmentedSnapshotFormat.SEGMENT_SIZE,
+                partial.getTransactionLists().get(TransactionType.EXPENSE).getFlattenedTransactions().size());
+
+        assertTrue(UserMementoManager.delete(SEGMENTED_NAME));
+    }
+
+    @Test
+    @Order(7)
+    void testLazyLoadDefersTransactionsUntilAccessed() throws Exception {
+        User user = new User(LAZY_NAME, 30, Gender.FEMALE, PasswordUtils.hash("Password"));
+        Account account = new Account("Bank", 1000.0, AccounType.BANK);
+        user.addAccount(account);
+        user.addTransaction(new ExpenseTransaction(20.0, "FOOD", "Lunch", new Date(), account));
+        UserMementoManager.save(UserMapper.toSnapshot(user));
+        user.getChangeLog().markSaved(LAZY_NAME);
+
+        AbstractTransaction dinner = new ExpenseTransaction(35.0, "FOOD", "Dinner", new Date(), account);
+        user.addTransaction(dinner);
+        UserMementoManager.append(UserMapper.toJournalEntry(user));
+
+        User restored = UserMapper.fromSnapshot(UserMementoManager.load(LAZY_NAME, true).orElseThrow());
+        TransactionList expenses = restored.getTransactionLists().get(TransactionType.EXPENSE);
+        assertTrue(expenses.hasDeferredContent());
+        assertEquals(1, restored.getAccountList().size());
+
+        // Ids come from the header, so new transactions never reuse deferred ones
+        AbstractTransaction taxi = new ExpenseTransaction(15.0, "TRAVEL", "Taxi", new Date(), account);
+        assertTrue(taxi.getTransactionId() > dinner.getTransactionId());
+        restored.addTransaction(taxi);
+        assertTrue(expenses.hasDeferredContent());
+
+        List<AbstractTransaction> all = expenses.getFlattenedTransactions();
+        assertFalse(expenses.hasDeferredContent());
+        assertEquals(List.of("Lunch", "Dinner", "Taxi"), all.stream().map(AbstractTransaction::getReason).toList());
+
+        assertTrue(UserMementoManager.delete(LAZY_NAME));
+    }
+
+    @Test
+    @Order(8)
+    void testBinarySnapshotSharesAccountsAndReadsJsonSegments() throws Exception {
+        User user = new User(BINARY_NAME, 28, Gender.MALE, PasswordUtils.hash("Password"));
+        Account bank = new Account("Bank", 800.0, AccounType.BANK);
+        Account closed = new Account("Closed", 0.0, AccounType.CASH);
+        user.addAccount(bank);
+        user.addTransaction(new IncomeTransaction(100.0, "SALARY", "Pay", new Date(), bank));
+        user.addTransaction(new MovementTransaction(50.0, "SAVINGS", null, new Date(), bank, closed));
+        UserSnapshot snapshot = UserMapper.toSnapshot(user);
+        UserMementoManager.save(snapshot);
+
+        User restored = UserMapper.fromSnapshot(UserMementoManager.load(BINARY_NAME).orElseThrow());
+        AccountInterface account = restored.getAccountList().get(0);
+        IncomeTransaction pay = (IncomeTransaction) restored.getTransactionLists().get(TransactionType.INCOME)
+                .getFlattenedTransactions().get(0);
+        MovementTransaction move = (MovementTransaction) restored.getTransactionLists().get(TransactionType.MOVEMENT)
+                .getFlattenedTransactions().get(0);
+        assertSame(account, pay.getToAccount());
+        assertSame(account, move.getToAccount());
+        assertEquals(closed.getAccountId(), move.getFromAccount().getAccountId());
+        assertEquals("SAVINGS", move.getCategory());
+        assertNull(move.getReason());
+
+        // Snapshots whose segments were written as JSON are still detected and read
+        Path file = UserMementoManager.snapshotPath(BINARY_NAME);
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(0x46545331);
+            out.writeByte(3);
+            SegmentedSnapshotFormat.write(out, snapshot, new JsonSegmentCodec(new ObjectMapper()), SegmentCompression.NONE, 0);
+        }
+        UserSnapshot fromJson = UserMementoManager.load(BINARY_NAME).orElseThrow();
+        assertEquals(1, fromJson.transactions().get(TransactionType.MOVEMENT).size());
+
+        Path export = Files.createTempFile(BINARY_NAME, UserMementoManager.JSON);
+        assertTrue(UserMementoManager.exportJson(BINARY_NAME, export));
+        assertTrue(Files.readString(export).contains("\"SALARY\""));
+        Files.delete(export);
+
+        assertTrue(UserMementoManager.delete(BINARY_NAME));
+    }
+
+    @Test
+    @Order(9)
+    void testCompressionShrinksSnapshotAndStaysReadable() throws Exception {
+        User user = new User(COMPRESSED_NAME, 45, Gender.FEMALE, PasswordUtils.hash("Password"));
+        Account account = new Account("Bank", 5000.0, AccounType.BANK);
+        user.addAccount(account);
+        for (int i = 0; i < 1_000; i++) {
+            user.addTransaction(new ExpenseTransaction(12.5, "FOOD", "Groceries", new Date(), account));
+        }
+        Path file = UserMementoManager.snapshotPath(COMPRESSED_NAME);
+        try {
+            UserMementoManager.setCompressionLevel(Deflater.NO_COMPRESSION);
+            UserMementoManager.save(UserMapper.toSnapshot(user));
+            long plainSize = Files.size(file);
+
+            UserMementoManager.setCompressionLevel(Deflater.BEST_COMPRESSION);
+            UserMementoManager.save(UserMapper.toSnapshot(user));
+            assertTrue(Files.size(file) * 3 < plainSize);
+
+            UserSnapshot loaded = UserMementoManager.load(COMPRESSED_NAME).orElseThrow();
+            assertEquals(1_000, loaded.transactions().get(TransactionType.EXPENSE).size());
+        } finally {
+            UserMementoManager.setCompressionLevel(Deflater.BEST_SPEED);
+            assertTrue(UserMementoManager.delete(COMPRESSED_NAME));
+        }
+        assertThrows(IllegalArgumentException.class, () -> UserMementoManager.setCompressionLevel(10));
+    }
+
+    @Test
+    @Order(10)
+    void testCatalogKeepsExactNamesAndMetadata() throws Exception {
+        User spaced = new User(SPACED_NAME, 21, Gender.FEMALE, PasswordUtils.hash("Password"));
+        User underscored = new User(UNDERSCORED_NAME, 62, Gender.MALE, PasswordUtils.hash("Password"));
+        Account account = new Account("Bank", 100.0, AccounType.BANK);
+        spaced.addAccount(account);
+        spaced.addTransaction(new ExpenseTransaction(5.0, "FOOD", "Bread", new Date(), account));
+        UserMementoManager.save(UserMapper.toSnapshot(spaced));
+        UserMementoManager.save(UserMapper.toSnapshot(underscored));
+        spaced.getChangeLog().markSaved(SPACED_NAME);
+        spaced.addTransaction(new ExpenseTransaction(7.0, "FOOD", "Milk", new Date(), account));
+        UserMementoManager.append(UserMapper.toJournalEntry(spaced));
+
+        List<String> names = UserMementoManager.listSavedUsers();
+        assertTrue(names.contains(SPACED_NAME));
+        assertTrue(names.contains(UNDERSCORED_NAME));
+        SavedUserEntry entry = UserMementoManager.listSavedUserEntries().stream()
+                .filter(e -> e.name().equals(SPACED_NAME)).findFirst().orElseThrow();
+        assertEquals(2, entry.transactionCount());
+        assertTrue(entry.size() > 0);
+
+        assertEquals(21, UserMementoManager.load(SPACED_NAME).orElseThrow().age());
+        assertEquals(62, UserMementoManager.load(UNDERSCORED_NAME).orElseThrow().age());
+
+        assertTrue(UserMementoManager.delete(SPACED_NAME));
+        assertTrue(UserMementoManager.delete(UNDERSCORED_NAME));
+        assertFalse(UserMementoManager.listSavedUsers().contains(SPACED_NAME));
+    }
+
+    @Test
+    @Order(11)
+    void testSaveOnTopOfAnotherSessionsRevisionIsRejected() throws Exception {
+        User user = new User(REVISION_NAME, 40, Gender.MALE, PasswordUtils.hash("Password"));
+        UserMementoManager.save(UserMapper.toSnapshot(user));
+        long saved = UserMementoManager.revision(REVISION_NAME);
+        assertTrue(saved > 0);
+
+        // Another process writes the user in between
+        Path lock = UserMementoManager.lockPath(REVISION_NAME);
+        Files.write(lock, ByteBuffer.allocate(Long.BYTES).putLong(saved + 1).array());
+        assertThrows(ConcurrentSaveException.class, () -> UserMementoManager.verifyRevision(REVISION_NAME));
+        assertThrows(ConcurrentSaveException.class, () -> UserMementoManager.save(UserMapper.toSnapshot(user)));
+        assertEquals(saved + 1, UserMementoManager.revision(REVISION_NAME));
+
+        // Loading picks up the other session's revision, after which saving works again
+        UserMementoManager.load(REVISION_NAME).orElseThrow();
+        UserMementoManager.save(UserMapper.toSnapshot(user));
+        assertEquals(saved + 2, UserMementoManager.revision(REVISION_NAME));
+        assertTrue(UserMementoManager.delete(REVISION_NAME));
+
+        // Deleting removes the lock file; a recreated user does not reuse old revisions
+        assertFalse(Files.exists(lock));
+        assertEquals(0, UserMementoManager.revision(REVISION_NAME));
+        UserMementoManager.save(UserMapper.toSnapshot(user));
+        assertTrue(UserMementoManager.revision(REVISION_NAME) > saved + 2);
+        assertTrue(UserMementoManager.delete(REVISION_NAME));
+    }
+
+    @Test
+    @Order(12)
+    void testCatalogKeepsEntriesWrittenByOtherProcesses(@TempDir Path dir) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        SavedUserCatalog first = new SavedUserCatalog(dir, mapper);
+        SavedUserCatalog second = new SavedUserCatalog(dir, mapper);
+        assertTrue(first.list().isEmpty());
+        assertTrue(second.list().isEmpty());
+
+        first.put(new SavedUserEntry("alice", "alice", 1, 1, 0, 5));
+        second.put(new SavedUserEntry("bob", "bob", 1, 1, 0, 5));
+        assertEquals(List.of("alice", "bob"), first.list().stream().map(SavedUserEntry::name).toList());
+        first.remove("bob");
+        assertTrue(second.get("bob").isEmpty());
+        assertTrue(second.get("alice").isPresent());
+    }
+
+    @Test
+    @Order(12)
+    void testCatalogAppendsChangesAndReservesDistinctIds(@TempDir Path dir) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        SavedUserCatalog first = new SavedUserCatalog(dir, mapper);
+        SavedUserCatalog second = new SavedUserCatalog(dir, mapper);
+        assertTrue(first.list().isEmpty());
+        Path base = dir.resolve(SavedUserCatalog.FILE_NAME);
+        byte[] emptyBase = Files.readAllBytes(base);
+
+        // Users whose names map to the same file name still get their own files
+        assertEquals("a_b", first.reserveFileId("a b", "a_b"));
+        assertEquals("a_b_2", second.reserveFileId("a-b", "a_b"));
+        first.update("a b", e -> new SavedUserEntry(e.name(), e.fileId(), 10, 1, 3, 5));
+        assertArrayEquals(emptyBase, Files.readAllBytes(base));
+        assertEquals(3, second.get("a b").orElseThrow().transactionCount());
+
+        // The log is folded into the base once it outgrows it
+        for (int i = 0; i < 100; i++) {
+            second.put(new SavedUserEntry("user" + i, "user" + i, 1, 1, i, 5));
+        }
+        Path log = dir.resolve(SavedUserCatalog.FILE_NAME + ".log");
+        assertTrue(!Files.exists(log) || Files.readAllLines(log).size() < 100);
+        assertEquals(102, first.list().size());
+        assertEquals(102, new SavedUserCatalog(dir, mapper).list().size());
+    }
+
+    @Test
+    @Order(13)
+    void testJournalReplayKeepsTransactionsLinkedToVisibleAccounts() throws Exception {
+        User user = new User(RELINK_NAME, 35, Gender.FEMALE, PasswordUtils.hash("Password"));
+        Account bank = new Account("Bank", 1000.0, AccounType.BANK);
+        user.addAccount(bank);
+        bank.update(500.0);
+        user.addTransaction(new IncomeTransaction(500.0, "SALARY", "Pay", new Date(), bank));
+        UserMementoManager.save(UserMapper.toSnapshot(user));
+        user.getChangeLog().markSaved(RELINK_NAME);
+
+        bank.update(-300.0);
+        user.addTransaction(new ExpenseTransaction(300.0, "RENT", "Flat", new Date(), bank));
+        UserMementoManager.append(UserMapper.toJournalEntry(user));
+
+        User restored = UserMapper.fromSnapshot(UserMementoManager.load(RELINK_NAME).orElseThrow());
+        AccountInterface account = restored.getAccountList().get(0);
+        assertEquals(1200.0, account.getBalance());
+
+        TransactionService service = new TransactionService(mock(UserService.class), mock(FinanceAbstractFactory.class));
+        service.setCurrentUser(restored);
+        service.delete(restored.getTransactionLists().get(TransactionType.INCOME).getFlattenedTransactions().get(0));
+        assertEquals(700.0, account.getBalance());
+        service.delete(restored.getTransactionLists().get(TransactionType.EXPENSE).getFlattenedTransactions().get(0));
+        assertEquals(1000.0, account.getBalance());
+
+        assertTrue(UserMementoManager.delete(RELINK_NAME));
+    }
 }
@@ -0,0 +1,81 @@
+package it.finance.sb.memento;
+
+import it.finance.sb.mapper.UserMapper;
+import it.finance.sb.mapper.UserSnapshot;
+import it.finance.sb.model.account.AccounType;
+import it.finance.sb.model.account.Account;
+import it.finance.sb.model.transaction.ExpenseTransaction;
+import it.finance.sb.model.transaction.IncomeTransaction;
+import it.finance.sb.model.transaction.MovementTransaction;
+import it.finance.sb.model.user.Gender;
+import it.finance.sb.model.user.User;
+import it.finance.sb.utility.PasswordUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Compares snapshot size and save/load time across compression levels.
+ * Not part of the test suite: run its main method against the test classpath
+ * after {@code mvn test-compile}.
+ */
+public class SnapshotCompressionBenchmark {
+
+    private static final String USERNAME = "BenchmarkCompression";
+    private static final int TRANSACTIONS = 200_000;
+    private static final int ROUNDS = 5;
+    private static final String[] CATEGORIES = {"FOOD", "RENT", "TRAVEL", "SALARY", "HEALTH", "FUN", "SAVINGS"};
+
+    public static void main(String[] args) throws Exception {
+        UserSnapshot snapshot = UserMapper.toSnapshot(ledger());
+        Path file = UserMementoManager.snapshotPath(USERNAME);
+
+        System.out.printf("%d transactions, best of %d rounds%n", TRANSACTIONS, ROUNDS);
+        System.out.printf("%-6s %12s %10s %10s%n", "level", "bytes", "save ms", "load ms");
+        try {
+            for (int level = Deflater.NO_COMPRESSION; level <= Deflater.BEST_COMPRESSION; level++) {
+                UserMementoManager.setCompressionLevel(level);
+                long save = Long.MAX_VALUE;
+                long load = Long.MAX_VALUE;
+                for (int round = 0; round < ROUNDS; round++) {
+                    long start = System.nanoTime();
+                    UserMementoManager.save(snapshot);
+                    save = Math.min(save, System.nanoTime() - start);
+
+                    start = System.nanoTime();
+                    UserMementoManager.load(USERNAME).orElseThrow();
+                    load = Math.min(load, System.nanoTime() - start);
+                }
+                System.out.printf("%-6d %12d %10d %10d%n", level, Files.size(file), save / 1_000_000, load / 1_000_000);
+            }
+        } finally {
+            UserMementoManager.delete(USERNAME);
+        }
+    }
+
+    private static User ledger() {
+        User user = new User(USERNAME, 40, Gender.OTHER, PasswordUtils.hash("Password"));
+        Account bank = new Account("Bank", 1_000_000.0, AccounType.BANK);
+        Account cash = new Account("Wallet", 10_000.0, AccounType.CASH);
+        user.addAccount(bank);
+        user.addAccount(cash);
+
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+            double amount = Math.round(random.nextDouble() * 50_000) / 100.0;
+            Date date = new Date(now - random.nextInt(1_000) * 86_400_000L);
+            String reason = "Payment " + random.nextInt(500);
+            user.addTransaction(switch (i % 3) {
+                case 0 -> new ExpenseTransaction(amount, category, reason, date, cash);
+                case 1 -> new IncomeTransaction(amount, category, reason, date, bank);
+                default -> new MovementTransaction(amount, category, reason, date, cash, bank);
+            });
+        }
+        return user;
+    }
+}
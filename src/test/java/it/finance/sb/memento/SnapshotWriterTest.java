@@ -0,0 +1,108 @@
+package it.finance.sb.memento;
+
+import it.finance.sb.mapper.UserJournalEntry;
+import it.finance.sb.mapper.UserMapper;
+import it.finance.sb.model.account.AccounType;
+import it.finance.sb.model.account.Account;
+import it.finance.sb.model.transaction.AbstractTransaction;
+import it.finance.sb.model.transaction.ExpenseTransaction;
+import it.finance.sb.model.transaction.IncomeTransaction;
+import it.finance.sb.model.transaction.TransactionType;
+import it.finance.sb.model.user.Gender;
+import it.finance.sb.model.user.User;
+import it.finance.sb.utility.PasswordUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotWriterTest {
+
+    private static final String NAME = "TestUserWriter";
+
+    @AfterEach
+    void cleanup() {
+        UserMementoManager.delete(NAME);
+    }
+
+    @Test
+    void testBurstOfSavesIsMergedAndWritten() throws Exception {
+        User user = new User(NAME, 33, Gender.MALE, PasswordUtils.hash("Password"));
+        Account account = new Account("Bank", 1000.0, AccounType.BANK);
+        user.addAccount(account);
+        AbstractTransaction salary = new IncomeTransaction(900.0, "SALARY", "Pay", new Date(), account);
+        user.addTransaction(salary);
+
+        try (SnapshotWriter writer = new SnapshotWriter()) {
+            writer.submit(UserMapper.toSnapshot(user));
+            user.getChangeLog().markSaved(NAME);
+
+            AbstractTransaction coffee = new ExpenseTransaction(3.0, "FOOD", "Coffee", new Date(), account);
+            user.addTransaction(coffee);
+            writer.submit(UserMapper.toJournalEntry(user));
+            user.getChangeLog().markSaved(NAME);
+
+            user.removeTransaction(coffee);
+            user.removeTransaction(salary);
+            user.addTransaction(new ExpenseTransaction(40.0, "FOOD", "Dinner", new Date(), account));
+            writer.submit(UserMapper.toJournalEntry(user));
+            writer.flush();
+            assertFalse(writer.consumeFailure(NAME));
+        }
+
+        User restored = UserMapper.fromSnapshot(UserMementoManager.load(NAME).orElseThrow());
+        assertTrue(restored.getTransactionLists().get(TransactionType.INCOME).getFlattenedTransactions().isEmpty());
+        assertEquals(List.of("Dinner"), restored.getTransactionLists().get(TransactionType.EXPENSE)
+                .getFlattenedTransactions().stream().map(AbstractTransaction::getReason).toList());
+        try (Stream<Path> files = Files.list(UserMementoManager.snapshotPath(NAME).getParent())) {
+            assertTrue(files.noneMatch(file -> file.getFileName().toString().startsWith(NAME + ".")
+                    && file.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+
+    @Test
+    void testMergedJournalEntriesCancelAddThenRemove() throws IOException {
+        User user = new User(NAME, 33, Gender.MALE, PasswordUtils.hash("Password"));
+        Account account = new Account("Bank", 1000.0, AccounType.BANK);
+        user.addAccount(account);
+        user.getChangeLog().markSaved(NAME);
+
+        AbstractTransaction taxi = new ExpenseTransaction(20.0, "TRAVEL", "Taxi", new Date(), account);
+        user.addTransaction(taxi);
+        UserJournalEntry first = UserMapper.toJournalEntry(user);
+        user.getChangeLog().markSaved(NAME);
+        user.removeTransaction(taxi);
+        UserJournalEntry second = UserMapper.toJournalEntry(user);
+
+        UserJournalEntry merged = UserMapper.mergeJournalEntries(first, second);
+        assertTrue(merged.addedTransactions().values().stream().allMatch(List::isEmpty));
+        assertTrue(merged.removedTransactionIds().isEmpty());
+    }
+
+    @Test
+    void testFailedWriteIsReportedUntilRecovered() throws Exception {
+        User user = new User(NAME, 33, Gender.MALE, PasswordUtils.hash("Password"));
+        UserMementoManager.save(UserMapper.toSnapshot(user));
+        user.getChangeLog().markSaved(NAME);
+
+        // Another session writes the user, so the queued append is rejected
+        long revision = UserMementoManager.revision(NAME);
+        Files.write(UserMementoManager.lockPath(NAME), ByteBuffer.allocate(Long.BYTES).putLong(revision + 1).array());
+
+        SnapshotWriter writer = new SnapshotWriter();
+        writer.submit(UserMapper.toJournalEntry(user));
+        writer.close();
+        assertEquals(List.of(NAME), writer.getFailedUsers());
+
+        assertTrue(writer.consumeFailure(NAME));
+        assertTrue(writer.getFailedUsers().isEmpty());
+    }
+}
@@ -11,6 +11,8 @@ import it.finance.sb.model.user.User;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.Optional;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
@@ -81,4 +83,28 @@ class AccountServiceTest {
         assertFalse(user.getAccountList().contains(account));
         verify(transactionService).removeTransactionsForAccount(account);
     }
+
+    @Test
+    void testUndoRedoAccountChanges() throws Exception {
+        when(factory.createAccount(any(), any(), anyDouble())).thenReturn(mockAccount);
+
+        AccountInterface account = accountService.create(AccounType.BANK, "MockBank", 500.0);
+        accountService.modify(account, AccounType.CASH, "Renamed", 300.0);
+        accountService.delete(account);
+
+        assertEquals(Optional.of("Delete account Renamed"), accountService.undo());
+        assertTrue(user.getAccountList().contains(account));
+        accountService.undo();
+        assertEquals("MockBank", account.getName());
+        assertEquals(AccounType.BANK, account.getType());
+        assertEquals(500.0, account.getBalance());
+        accountService.undo();
+        assertTrue(user.getAccountList().isEmpty());
+
+        accountService.redo();
+        accountService.redo();
+        assertEquals("Renamed", account.getName());
+        assertEquals(300.0, account.getBalance());
+        assertTrue(user.getAccountList().contains(account));
+    }
 }
@@ -1,9 +1,14 @@
 package it.finance.sb.service;
 
+import it.finance.sb.exception.ConcurrentSaveException;
 import it.finance.sb.exception.MementoException;
 import it.finance.sb.mapper.UserMapper;
 import it.finance.sb.mapper.UserSnapshot;
 import it.finance.sb.memento.UserMementoManager;
+import it.finance.sb.model.account.AccounType;
+import it.finance.sb.model.account.Account;
+import it.finance.sb.model.transaction.ExpenseTransaction;
+import it.finance.sb.model.transaction.TransactionType;
 import it.finance.sb.model.user.Gender;
 import it.finance.sb.model.user.User;
 import it.finance.sb.utility.PasswordUtils;
@@ -11,12 +16,16 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.MockedStatic;
 
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 
 class MementoServiceTest {
 
@@ -42,6 +51,34 @@ class MementoServiceTest {
         }
     }
 
+    @Test
+    void testSaveUser_appendsJournalWhenBaselineExists() {
+        User user = new User("John", 30, Gender.MALE, PasswordUtils.hash("Password"));
+        user.getChangeLog().markSaved("John");
+
+        try (MockedStatic<UserMementoManager> mementoMock = mockStatic(UserMementoManager.class)) {
+            mementoMock.when(() -> UserMementoManager.shouldCompact("John")).thenReturn(false);
+
+            assertDoesNotThrow(() -> mementoService.saveUser(user));
+            mementoMock.verify(() -> UserMementoManager.append(any()));
+            mementoMock.verify(() -> UserMementoManager.save(any()), never());
+        }
+    }
+
+    @Test
+    void testSaveUser_rejectedWhenSavedByAnotherSession() {
+        User user = new User("John", 30, Gender.MALE, PasswordUtils.hash("Password"));
+
+        try (MockedStatic<UserMementoManager> mementoMock = mockStatic(UserMementoManager.class)) {
+            mementoMock.when(() -> UserMementoManager.verifyRevision("John"))
+                    .thenThrow(new ConcurrentSaveException("stale"));
+
+            MementoException e = assertThrows(MementoException.class, () -> mementoService.saveUser(user));
+            assertInstanceOf(ConcurrentSaveException.class, e.getCause());
+            mementoMock.verify(() -> UserMementoManager.save(any()), never());
+        }
+    }
+
     @Test
     void testSaveUser_failure() {
         assertThrows(MementoException.class, () -> mementoService.saveUser(null));
@@ -66,6 +103,42 @@ class MementoServiceTest {
         }
     }
 
+    @Test
+    void testLoadUser_servedFromCacheUntilSaved() throws Exception {
+        String name = "Carol";
+        Account bank = new Account("Bank", 100.0, AccounType.BANK);
+        UserSnapshot snapshot = new UserSnapshot(name, 41, Gender.FEMALE, PasswordUtils.hash("Password"), List.of(),
+                List.of(bank), Map.of(TransactionType.EXPENSE, List.of(new ExpenseTransaction(5.0, "FOOD", "Tea", new Date(), bank))));
+        MementoService cachingService = new MementoService(false, false, 4);
+
+        try (MockedStatic<UserMementoManager> mementoMock = mockStatic(UserMementoManager.class)) {
+            mementoMock.when(() -> UserMementoManager.load(name)).thenReturn(Optional.of(snapshot));
+            mementoMock.when(() -> UserMementoManager.revision(name)).thenReturn(7L);
+
+            User first = cachingService.loadUser(name).orElseThrow();
+            first.addCategory("UNSAVED");
+            User second = cachingService.loadUser(name).orElseThrow();
+            mementoMock.verify(() -> UserMementoManager.load(name), times(1));
+            // Every hit is a fresh user: unsaved edits of the first one are not carried over
+            assertNotSame(first, second);
+            assertFalse(second.isCategoryAllowed("UNSAVED"));
+            first.getAccountList().get(0).update(-50.0);
+            assertEquals(100.0, second.getAccountList().get(0).getBalance());
+            ExpenseTransaction tea = (ExpenseTransaction) second.getTransactionLists().get(TransactionType.EXPENSE)
+                    .getFlattenedTransactions().get(0);
+            assertSame(second.getAccountList().get(0), tea.getFromAccount());
+
+            // Another session writes the user
+            mementoMock.when(() -> UserMementoManager.revision(name)).thenReturn(8L);
+            cachingService.loadUser(name).orElseThrow();
+            mementoMock.verify(() -> UserMementoManager.load(name), times(2));
+
+            cachingService.saveUser(first);
+            cachingService.loadUser(name).orElseThrow();
+            mementoMock.verify(() -> UserMementoManager.load(name), times(3));
+        }
+    }
+
     @Test
     void testLoadUser_invalidInput() {
         assertThrows(MementoException.class, () -> mementoService.loadUser(" "));
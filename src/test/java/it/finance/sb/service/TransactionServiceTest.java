@@ -2,18 +2,26 @@ package it.finance.sb.service;
 
 import it.finance.sb.exception.TransactionOperationException;
 import it.finance.sb.factory.FinanceAbstractFactory;
+import it.finance.sb.model.account.AccounType;
+import it.finance.sb.model.account.Account;
 import it.finance.sb.model.account.AccountInterface;
+import it.finance.sb.model.account.AccountRole;
 import it.finance.sb.model.transaction.AbstractTransaction;
 import it.finance.sb.model.transaction.ExpenseTransaction;
 import it.finance.sb.model.transaction.IncomeTransaction;
+import it.finance.sb.model.transaction.MovementTransaction;
 import it.finance.sb.model.transaction.TransactionType;
 import it.finance.sb.model.user.Gender;
+import it.finance.sb.model.user.TransactionIndex;
 import it.finance.sb.model.user.User;
+import it.finance.sb.utility.Money;
 import it.finance.sb.utility.PasswordUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -126,4 +134,220 @@ class TransactionServiceTest {
         assertNotNull(modified);
         assertNotEquals(original.getTransactionId(), modified.getTransactionId());
     }
+
+    @Test
+    void testUndoRedoModify_shouldRestoreTransactionsAndBalances() throws Exception {
+        Account account = new Account("Wallet", 500.0, AccounType.CASH);
+        when(factory.createExpense(eq(100.0), eq("Food"), eq("Lunch"), any(Date.class), eq(account)))
+                .thenReturn(new ExpenseTransaction(100.0, "Food", "Lunch", new Date(), account));
+        AbstractTransaction original = transactionService.create(
+                TransactionType.EXPENSE, 100.0, "Food", "Lunch", new Date(), null, account);
+        AbstractTransaction updated = new ExpenseTransaction(250.0, "Food", "Dinner", new Date(), account);
+        when(factory.createExpense(eq(250.0), eq("Food"), eq("Dinner"), any(Date.class), eq(account)))
+                .thenReturn(updated);
+        transactionService.modify(original, 250.0, null, "Dinner", null, null, account);
+        assertEquals(250.0, account.getBalance());
+
+        assertTrue(transactionService.undo().isPresent());
+        assertEquals(400.0, account.getBalance());
+        assertEquals(List.of(original), transactionService.getAllTransactionsFlattened());
+
+        assertTrue(transactionService.redo().isPresent());
+        assertEquals(250.0, account.getBalance());
+        assertEquals(List.of(updated), transactionService.getAllTransactionsFlattened());
+
+        transactionService.undo();
+        transactionService.undo();
+        assertEquals(500.0, account.getBalance());
+        assertTrue(transactionService.getAllTransactionsFlattened().isEmpty());
+        assertTrue(transactionService.undo().isEmpty());
+    }
+
+    @Test
+    void testFailedUndo_shouldRollBackAndKeepTheEdit() throws Exception {
+        Account wallet = new Account("Wallet", 500.0, AccounType.CASH);
+        Account bank = new Account("Bank", 1000.0, AccounType.BANK);
+        when(factory.createExpense(eq(100.0), eq("Food"), eq("Lunch"), any(Date.class), eq(wallet)))
+                .thenReturn(new ExpenseTransaction(100.0, "Food", "Lunch", new Date(), wallet));
+        AbstractTransaction original = transactionService.create(
+                TransactionType.EXPENSE, 100.0, "Food", "Lunch", new Date(), null, wallet);
+        AbstractTransaction updated = new ExpenseTransaction(300.0, "Food", "Dinner", new Date(), bank);
+        when(factory.createExpense(eq(300.0), eq("Food"), eq("Dinner"), any(Date.class), eq(bank)))
+                .thenReturn(updated);
+        transactionService.modify(original, 300.0, null, "Dinner", null, null, bank);
+
+        // A change outside the history, e.g. an import, leaves too little to take the lunch back
+        wallet.update(-480.0);
+        assertThrows(IllegalArgumentException.class, () -> transactionService.undo());
+        assertEquals(20.0, wallet.getBalance());
+        assertEquals(700.0, bank.getBalance());
+        assertEquals(List.of(updated), transactionService.getAllTransactionsFlattened());
+
+        wallet.update(80.0);
+        assertTrue(transactionService.undo().isPresent());
+        assertEquals(0.0, wallet.getBalance());
+        assertEquals(1000.0, bank.getBalance());
+        assertEquals(List.of(original), transactionService.getAllTransactionsFlattened());
+    }
+
+    @Test
+    void testCategoryQueries_shouldMatchDictionaryIdsIgnoringCase() {
+        Account account = new Account("Wallet", 500.0, AccounType.CASH);
+        mockUser.addTransaction(new ExpenseTransaction(10.0, "Food", "Lunch", new Date(), account));
+        mockUser.addTransaction(new ExpenseTransaction(5.0, "FOOD ", "Snack", new Date(), account));
+        mockUser.addTransaction(new IncomeTransaction(100.0, "Salary", "May", new Date(), account));
+
+        assertEquals(2, transactionService.getTransactionsByCategory("food").size());
+        assertTrue(transactionService.getTransactionsByCategory("Travel").isEmpty());
+        assertTrue(mockUser.isCategoryAllowed(" transport"));
+        assertFalse(mockUser.isCategoryAllowed("Salary"));
+        assertEquals(Map.of("FOOD", 15.0, "SALARY", 100.0), transactionService.getTotalsByCategory());
+    }
+
+    @Test
+    void testIndexes_shouldFollowDeleteAndUndo() throws Exception {
+        Account wallet = new Account("Wallet", 500.0, AccounType.CASH);
+        Account bank = new Account("Bank", 500.0, AccounType.BANK);
+        AbstractTransaction lunch = new ExpenseTransaction(10.0, "Food", "Lunch", new Date(1_000), wallet);
+        AbstractTransaction rent = new ExpenseTransaction(300.0, "Home", "Rent", new Date(2_000), bank);
+        mockUser.addTransaction(lunch);
+        mockUser.addTransaction(rent);
+
+        assertEquals(List.of(lunch), transactionService.getTransactionsByAccount(wallet));
+        assertEquals(List.of(rent), transactionService.getTransactionsBetween(new Date(1_500), null));
+        assertEquals(List.of(lunch, rent), transactionService.getTransactionsBetween(null, new Date(2_000)));
+
+        transactionService.delete(rent);
+        assertTrue(transactionService.getTransactionsByAccount(bank).isEmpty());
+        assertTrue(transactionService.getTransactionsByCategory("Home").isEmpty());
+
+        transactionService.undo();
+        assertEquals(List.of(rent), transactionService.getTransactionsByCategory("home"));
+        assertEquals(List.of(rent), transactionService.getTransactionsByAccount(bank));
+    }
+
+    @Test
+    void testModifyInPlace_shouldReindexTransaction() throws Exception {
+        Account wallet = new Account("Wallet", 0.0, AccounType.CASH);
+        AbstractTransaction salary = new IncomeTransaction(100.0, "Salary", "June", new Date(1_000), wallet);
+        wallet.update(100.0);
+        mockUser.addTransaction(salary);
+        assertEquals(List.of(salary), transactionService.getTransactionsByCategory("salary"));
+
+        assertTrue(mockUser.modifyTransaction(salary, tx -> {
+            tx.setCategory("Bonus");
+            tx.setReason("Summer bonus");
+            tx.setDate(new Date(3_000));
+        }));
+        assertTrue(transactionService.getTransactionsByCategory("salary").isEmpty());
+        assertEquals(List.of(salary), transactionService.getTransactionsByCategory("bonus"));
+        assertEquals(List.of(salary), transactionService.getTransactionsByReasonContains("summer"));
+        assertTrue(transactionService.getTransactionsBetween(null, new Date(2_000)).isEmpty());
+        assertEquals(0.0, transactionService.getBalanceAsOf(wallet, new Date(2_000)));
+        assertEquals(List.of(salary), mockUser.getChangeLog().getAdded());
+
+        // Removal unlinks the keys of the modified transaction
+        transactionService.delete(salary);
+        assertTrue(transactionService.getTransactionsByCategory("bonus").isEmpty());
+        assertTrue(transactionService.getTransactionsBetween(null, null).isEmpty());
+        assertEquals(0.0, transactionService.getBalanceAsOf(wallet, new Date(0)));
+    }
+
+    @Test
+    void testBalanceAsOf_shouldSubtractLaterChanges() throws Exception {
+        Account wallet = new Account("Wallet", 0.0, AccounType.CASH);
+        Account bank = new Account("Bank", 0.0, AccounType.BANK);
+        for (int day = 1; day <= 20; day++) {
+            wallet.update(10.0);
+            mockUser.addTransaction(new IncomeTransaction(10.0, "Salary", "Day " + day, new Date(day * 1_000L), wallet));
+        }
+        assertEquals(200.0, transactionService.getBalanceAsOf(wallet, new Date(25_000)));
+        assertEquals(50.0, transactionService.getBalanceAsOf(wallet, new Date(5_500)));
+
+        // Dated between existing changes, and removed again
+        wallet.update(-40.0);
+        bank.update(40.0);
+        AbstractTransaction transfer = new MovementTransaction(40.0, "Savings", "Move", new Date(2_500), bank, wallet);
+        mockUser.addTransaction(transfer);
+        assertEquals(-20.0, transactionService.getBalanceAsOf(wallet, new Date(2_500)));
+        assertEquals(10.0, transactionService.getBalanceAsOf(wallet, new Date(1_000)));
+        assertEquals(40.0, transactionService.getBalanceAsOf(bank, new Date(3_000)));
+        assertEquals(0.0, transactionService.getBalanceAsOf(bank, new Date(2_000)));
+
+        transactionService.delete(transfer);
+        assertEquals(30.0, transactionService.getBalanceAsOf(wallet, new Date(3_000)));
+        assertEquals(0.0, transactionService.getBalanceAsOf(bank, new Date(3_000)));
+    }
+
+    @Test
+    void testBalanceAsOf_fixedPoint_shouldSumExactMinorUnits() throws Exception {
+        Account wallet = new Account("Wallet", 0.0, AccounType.CASH);
+        TransactionIndex index = new TransactionIndex(tx -> 0, true);
+        for (int day = 1; day <= 10; day++) {
+            index.add(new IncomeTransaction(0.10, "Gift", "Day " + day, new Date(day * 1_000L), wallet));
+        }
+        // Ten 0.10 doubles add up to 0.9999999999999999
+        assertEquals(1.0, index.balanceChangeAfter(wallet.getAccountId(), new Date(0)));
+        assertEquals(0.5, index.balanceChangeAfter(wallet.getAccountId(), new Date(5_000)));
+        assertEquals(0.0, Money.add(1.0, -index.balanceChangeAfter(wallet.getAccountId(), new Date(0))));
+
+        // Dated between existing changes
+        index.add(new IncomeTransaction(0.20, "Gift", "Late", new Date(2_500), wallet));
+        assertEquals(1.0, index.balanceChangeAfter(wallet.getAccountId(), new Date(2_000)));
+        assertEquals(0.7, index.balanceChangeAfter(wallet.getAccountId(), new Date(3_000)));
+    }
+
+    @Test
+    void testReasonSearch_shouldMatchSubstringsIgnoringCase() throws Exception {
+        Account wallet = new Account("Wallet", 500.0, AccounType.CASH);
+        AbstractTransaction pizza = new ExpenseTransaction(12.0, "Food", "Pizza Margherita", new Date(), wallet);
+        AbstractTransaction pasta = new ExpenseTransaction(9.0, "Food", "Pasta al pesto", new Date(), wallet);
+        AbstractTransaction bus = new ExpenseTransaction(2.0, "Transport", "Bus ticket", new Date(), wallet);
+        mockUser.addTransaction(pizza);
+        mockUser.addTransaction(pasta);
+        mockUser.addTransaction(bus);
+
+        assertEquals(List.of(pizza), transactionService.getTransactionsByReasonContains("MARGH"));
+        assertEquals(List.of(pizza, pasta), transactionService.getTransactionsByReasonContains("p"));
+        assertEquals(List.of(pasta), transactionService.getTransactionsByReasonContains("al pe"));
+        assertTrue(transactionService.getTransactionsByReasonContains("pizza pasta").isEmpty());
+
+        transactionService.delete(pasta);
+        assertTrue(transactionService.getTransactionsByReasonContains("pesto").isEmpty());
+        assertEquals(List.of(bus), transactionService.getTransactionsByReasonContains("ticket"));
+    }
+
+    @Test
+    void testAccountStatement_shouldListRolesInDateOrder() throws Exception {
+        Account wallet = new Account("Wallet", 500.0, AccounType.CASH);
+        Account bank = new Account("Bank", 500.0, AccounType.BANK);
+        AbstractTransaction salary = new IncomeTransaction(100.0, "Salary", "June", new Date(3_000), bank);
+        AbstractTransaction lunch = new ExpenseTransaction(10.0, "Food", "Lunch", new Date(1_000), wallet);
+        AbstractTransaction transfer = new MovementTransaction(50.0, "Savings", "Move", new Date(2_000), bank, wallet);
+        mockUser.addTransaction(salary);
+        mockUser.addTransaction(lunch);
+        mockUser.addTransaction(transfer);
+
+        List<TransactionIndex.AccountEntry> walletStatement = transactionService.getAccountStatement(wallet);
+        assertEquals(List.of(lunch, transfer), walletStatement.stream().map(TransactionIndex.AccountEntry::transaction).toList());
+        assertEquals(List.of(AccountRole.EXPENSE, AccountRole.MOVEMENT_OUT), walletStatement.stream().map(TransactionIndex.AccountEntry::role).toList());
+        assertEquals(-50.0, walletStatement.get(1).balanceChange());
+
+        List<TransactionIndex.AccountEntry> bankStatement = transactionService.getAccountStatement(bank);
+        assertEquals(List.of(AccountRole.MOVEMENT_IN, AccountRole.INCOME), bankStatement.stream().map(TransactionIndex.AccountEntry::role).toList());
+
+        // A movement within one account, e.g. from older data, changes neither the statement nor the timeline
+        AbstractTransaction within = new MovementTransaction(20.0, "Savings", "Shuffle", new Date(4_000), bank, bank);
+        mockUser.addTransaction(within);
+        TransactionIndex.AccountEntry withinEntry = transactionService.getAccountStatement(bank).get(2);
+        assertEquals(AccountRole.MOVEMENT_WITHIN, withinEntry.role());
+        assertEquals(0.0, withinEntry.balanceChange());
+        assertEquals(bank.getBalance(), transactionService.getBalanceAsOf(bank, new Date(3_500)));
+        assertThrows(TransactionOperationException.class, () -> transactionService.create(TransactionType.MOVEMENT,
+                20.0, "Savings", "Shuffle", new Date(), bank, bank));
+
+        transactionService.removeTransactionsForAccount(wallet);
+        assertTrue(transactionService.getAccountStatement(wallet).isEmpty());
+        assertEquals(List.of(salary, within), transactionService.getAccountStatement(bank).stream().map(TransactionIndex.AccountEntry::transaction).toList());
+    }
 }
@@ -0,0 +1,57 @@
+package it.finance.sb.service;
+
+import it.finance.sb.mapper.UserSnapshot;
+import it.finance.sb.model.user.Gender;
+import it.finance.sb.utility.PasswordUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserCacheTest {
+
+    private static UserSnapshot user(String name) {
+        return new UserSnapshot(name, 30, Gender.OTHER, PasswordUtils.hash("Password"), List.of(), List.of(), Map.of());
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsedBeyondMaxEntries() {
+        UserCache cache = new UserCache(2, 1_000);
+        UserSnapshot alice = user("Alice");
+        cache.put("Alice", alice, 1, 10);
+        cache.put("Bob", user("Bob"), 1, 10);
+        assertSame(alice, cache.get("Alice", 1));
+
+        cache.put("Carol", user("Carol"), 1, 10);
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("Alice", 1));
+        assertNull(cache.get("Bob", 1));
+    }
+
+    @Test
+    void testEvictsToStayWithinMemoryBudget() {
+        UserCache cache = new UserCache(10, 100);
+        cache.put("Alice", user("Alice"), 1, 60);
+        cache.put("Bob", user("Bob"), 1, 60);
+        assertNull(cache.get("Alice", 1));
+        assertNotNull(cache.get("Bob", 1));
+
+        cache.put("Huge", user("Huge"), 1, 500);
+        assertNull(cache.get("Huge", 1));
+        assertNotNull(cache.get("Bob", 1));
+    }
+
+    @Test
+    void testChangedRevisionAndInvalidateDropEntry() {
+        UserCache cache = new UserCache(10, 1_000);
+        cache.put("Alice", user("Alice"), 1, 10);
+        assertNull(cache.get("Alice", 2));
+        assertEquals(0, cache.size());
+
+        cache.put("Alice", user("Alice"), 2, 10);
+        cache.invalidate("Alice");
+        assertNull(cache.get("Alice", 2));
+    }
+}
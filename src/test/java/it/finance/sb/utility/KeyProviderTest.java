@@ -0,0 +1,71 @@
+package it.finance.sb.utility;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for KeyProvider and the key-versioned EncryptionUtils format.
+ */
+class KeyProviderTest {
+
+    @TempDir
+    Path keyDir;
+
+    @Test
+    void testFirstUse_shouldCreateLegacyKey() throws Exception {
+        KeyProvider provider = new KeyProvider(keyDir);
+
+        assertEquals(KeyProvider.LEGACY_VERSION, provider.getCurrentVersion());
+        assertTrue(Files.exists(keyDir.resolve("user.key")));
+    }
+
+    @Test
+    void testRotate_shouldKeepOlderKeysReadable() throws Exception {
+        KeyProvider provider = new KeyProvider(keyDir);
+        SecretKeySpec legacy = provider.getKey(KeyProvider.LEGACY_VERSION);
+
+        int rotated = provider.rotate();
+
+        assertEquals(2, rotated);
+        assertEquals(2, provider.getCurrentVersion());
+        assertTrue(Files.exists(keyDir.resolve("user.v2.key")));
+        assertEquals(legacy, provider.getKey(KeyProvider.LEGACY_VERSION));
+        assertNotEquals(legacy, provider.getKey(2));
+
+        // A fresh provider discovers the rotated version from disk
+        assertEquals(2, new KeyProvider(keyDir).getCurrentVersion());
+    }
+
+    @Test
+    void testRotationByAnotherProvider_shouldBePickedUp() throws Exception {
+        KeyProvider session = new KeyProvider(keyDir);
+        assertEquals(KeyProvider.LEGACY_VERSION, session.getCurrentVersion());
+
+        // Another process rotates the key while this session keeps running
+        int rotated = new KeyProvider(keyDir).rotate();
+
+        assertEquals(rotated, session.getCurrentVersion());
+        assertEquals(rotated + 1, session.rotate());
+    }
+
+    @Test
+    void testGetKey_unknownVersion_shouldFail() {
+        KeyProvider provider = new KeyProvider(keyDir);
+        assertThrows(GeneralSecurityException.class, () -> provider.getKey(7));
+    }
+
+    @Test
+    void testEncryptDecrypt_shouldBindUsername() throws Exception {
+        String encrypted = EncryptionUtils.encrypt("ledger", "alice");
+
+        assertEquals("ledger", EncryptionUtils.decrypt(encrypted, "alice"));
+        assertThrows(GeneralSecurityException.class, () -> EncryptionUtils.decrypt(encrypted, "bob"));
+    }
+}
@@ -0,0 +1,44 @@
+package it.finance.sb.utility;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the Money fixed-point helpers.
+ */
+class MoneyTest {
+
+    @Test
+    void testAdd_shouldNotDrift() {
+        double floating = 0;
+        double fixed = 0;
+        for (int i = 0; i < 10; i++) {
+            floating += 0.1;
+            fixed = Money.add(fixed, 0.1);
+        }
+        assertNotEquals(1.0, floating);
+        assertEquals(1.0, fixed);
+        assertEquals(0.0, Money.add(fixed, -1.0));
+    }
+
+    @Test
+    void testConversions_shouldRoundToMinorUnits() {
+        assertEquals(1999, Money.toMinor(19.99));
+        assertEquals(-250, Money.toMinor(-2.5));
+        assertEquals(12.35, Money.round(12.3456));
+        assertEquals(0.07, Money.toMajor(7));
+        assertThrows(ArithmeticException.class, () -> Money.add(Money.toMajor(Long.MAX_VALUE), 1.0));
+    }
+
+    @Test
+    void testAddRate_shouldCreditWholeMinorUnits() {
+        assertEquals(1004.17, Money.addRate(1000.0, 0.05 / 12));
+        assertEquals(100.0, Money.addRate(100.0, 0.00001));
+        double balance = 1000.0;
+        for (int month = 0; month < 12; month++) {
+            balance = Money.addRate(balance, 0.05 / 12);
+        }
+        assertEquals(1051.16, balance);
+    }
+}